@@ -0,0 +1,61 @@
+package bench;
+
+import main.Tile;
+import main.TileGrid;
+import main.TileRegistry;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Seeded test data shared by the benchmarks, so every run measures the same maps and tiles. */
+final class BenchData {
+    static final int TILE_SIZE = 16;
+
+    private BenchData() {
+    }
+
+    // random noise tiles, every other one with a transparent stripe
+    static BufferedImage createSheet(int sheetCols, int sheetRows) {
+        BufferedImage sheet = new BufferedImage(sheetCols * TILE_SIZE, sheetRows * TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(7);
+        for (int y = 0; y < sheet.getHeight(); y++) {
+            for (int x = 0; x < sheet.getWidth(); x++) {
+                boolean hole = ((x / TILE_SIZE + y / TILE_SIZE) & 1) == 1 && (x % TILE_SIZE) < 4;
+                sheet.setRGB(x, y, hole ? 0 : 0xff000000 | random.nextInt(0xffffff));
+            }
+        }
+        return sheet;
+    }
+
+    /** A registry with one 16x16 tile sheet of createSheet tiles. */
+    static TileRegistry createTiles() {
+        BufferedImage sheet = createSheet(16, 16);
+        List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                tiles.add(Tile.copyOf(sheet.getSubimage(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE)));
+            }
+        }
+        TileRegistry registry = new TileRegistry();
+        registry.addSheet("bench.png", tiles);
+        return registry;
+    }
+
+    /** Every cell of every layer set, a quarter of them empty, tiles drawn from tileCount ids. */
+    static TileGrid randomGrid(int layers, int rows, int cols, int tileCount) {
+        TileGrid grid = new TileGrid(layers, rows, cols);
+        Random random = new Random(42);
+        int[] row = new int[cols];
+        for (int l = 0; l < layers; l++) {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    row[c] = random.nextInt(4) == 0 ? TileGrid.EMPTY : TileGrid.FIRST_TILE + random.nextInt(tileCount);
+                }
+                grid.setRow(l, r, row, 0);
+            }
+        }
+        return grid;
+    }
+}
@@ -0,0 +1,75 @@
+package bench;
+
+import main.CellRenderer;
+import main.ChunkCache;
+import main.MapModel;
+import main.TileRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The map layers of the editor view: one 1280x800 viewport of a 4 layer map
+ * drawn through ChunkCache into an offscreen image, at several map sizes and
+ * zoom levels (tile sizes 8, 16, 32 and 128). Grid lines, the selection and
+ * the overlays the editor panel draws on top are not part of it.
+ * <p>
+ * cold renders every visible chunk again, like after a load or zoom change;
+ * cached blits the chunks kept from the previous paint, like scrolling back
+ * and forth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ChunkCachePaintBenchmark {
+    static final int VIEW_WIDTH = 1280, VIEW_HEIGHT = 800;
+
+    @Param({"100", "500", "2000"})
+    int mapSize;
+
+    @Param({"8", "16", "32", "128"})
+    int tileSize;
+
+    ChunkCache cache;
+    BufferedImage target;
+    Rectangle clip;
+
+    @Setup
+    public void setup() {
+        TileRegistry tiles = BenchData.createTiles();
+        MapModel model = new MapModel(BenchData.randomGrid(4, mapSize, mapSize, tiles.size()), 0);
+        CellRenderer renderer = new CellRenderer(model, tiles, new Color(255, 0, 255, 48), new Color(255, 0, 0, 48));
+        cache = new ChunkCache(renderer);
+
+        // the viewport in the middle of the map, or the whole map if it is smaller
+        int width = Math.min(VIEW_WIDTH, mapSize * tileSize);
+        int height = Math.min(VIEW_HEIGHT, mapSize * tileSize);
+        clip = new Rectangle((mapSize * tileSize - width) / 2, (mapSize * tileSize - height) / 2, width, height);
+        target = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    private BufferedImage paint() {
+        Graphics2D g2 = target.createGraphics();
+        g2.translate(-clip.x, -clip.y);
+        g2.setClip(clip);
+        cache.paint(g2, clip, tileSize);
+        g2.dispose();
+        return target;
+    }
+
+    @Benchmark
+    public BufferedImage cold() {
+        cache.invalidateAll();
+        return paint();
+    }
+
+    @Benchmark
+    public BufferedImage cached() {
+        return paint();
+    }
+}
@@ -0,0 +1,72 @@
+package bench;
+
+import main.MapFiles;
+import main.TaskProgress;
+import main.Tile;
+import main.TileGrid;
+import main.TileRegistry;
+import main.Workers;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * "Export Map + Tiles" of a 500x500 map with 4 layers and 256 tiles, with one
+ * PNG per tile or packed atlas pages. full rewrites every file into an empty
+ * folder, unchanged is an incremental export where nothing changed, which only
+ * hashes the layers and tiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ExportBenchmark {
+    static final int LAYERS = 4, ROWS = 500, COLS = 500;
+
+    @Param({"false", "true"})
+    boolean atlas;
+
+    File dir;
+    TileGrid grid;
+    Tile[] tiles;
+    int[] canonical;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        TileRegistry registry = BenchData.createTiles();
+        tiles = registry.toArray();
+        canonical = registry.canonicalIndexes();
+        grid = BenchData.randomGrid(LAYERS, ROWS, COLS, tiles.length);
+        dir = Files.createTempDirectory("export-bench").toFile();
+        export(false);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private int export(boolean incremental) throws IOException, InterruptedException {
+        return MapFiles.export(grid, tiles, canonical, dir, incremental, false, atlas, Workers.POOL, new TaskProgress());
+    }
+
+    @Benchmark
+    public int full() throws IOException, InterruptedException {
+        return export(false);
+    }
+
+    @Benchmark
+    public int unchanged() throws IOException, InterruptedException {
+        return export(true);
+    }
+}
@@ -0,0 +1,84 @@
+package bench;
+
+import main.Tile;
+import main.TileRegistry;
+import main.TilesheetImporter;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tilesheet import: decoding and slicing one 1024x1024 sheet (4096 tiles),
+ * adding the slices to a TileRegistry (hashing and deduplication), and the
+ * per-tile work of a new Tile, i.e. the empty/opaque classification that
+ * decides which tiles the palette and export skip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImportBenchmark {
+    static final int SHEET_TILES = 64; // tiles per sheet side
+
+    File dir;
+    File sheetFile;
+    TilesheetImporter.Sheet sheet;
+    BufferedImage opaque, translucent, empty;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("import-bench").toFile();
+        sheetFile = new File(dir, "sheet.png");
+        BufferedImage image = BenchData.createSheet(SHEET_TILES, SHEET_TILES);
+        ImageIO.write(image, "png", sheetFile);
+        sheet = TilesheetImporter.load(sheetFile, BenchData.TILE_SIZE);
+
+        int t = BenchData.TILE_SIZE;
+        opaque = image.getSubimage(0, 0, t, t);
+        translucent = image.getSubimage(t, 0, t, t);
+        empty = new BufferedImage(t, t, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sheetFile.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public TilesheetImporter.Sheet decodeAndSlice() throws IOException {
+        return TilesheetImporter.load(sheetFile, BenchData.TILE_SIZE);
+    }
+
+    @Benchmark
+    public TileRegistry addToRegistry() {
+        TileRegistry registry = new TileRegistry();
+        registry.addSheet(sheet.name, sheet.tiles);
+        return registry;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean classifyOpaque() {
+        return new Tile(opaque).isEmpty();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean classifyTranslucent() {
+        return new Tile(translucent).isEmpty();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean classifyEmpty() {
+        return new Tile(empty).isEmpty();
+    }
+}
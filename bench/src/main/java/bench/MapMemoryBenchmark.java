@@ -0,0 +1,76 @@
+package bench;
+
+import main.TileGrid;
+
+/**
+ * Compares the heap used by the old String[layer][row][col] map layout with
+ * TileGrid for a 500x500 map with 4 layers.
+ * <p>
+ * Cells hold distinct String instances like the old loader produced with
+ * line.split(" "). Run with a fixed heap, e.g. {@code java -Xms1g -Xmx1g}.
+ */
+public class MapMemoryBenchmark {
+    static final int LAYERS = 4, ROWS = 500, COLS = 500;
+    static final int TILE_COUNT = 2000;
+
+    public static void main(String[] args) {
+        long base = usedHeap();
+        String[][][] legacy = new String[LAYERS][ROWS][COLS];
+        for (int l = 0; l < LAYERS; l++) {
+            for (int r = 0; r < ROWS; r++) {
+                for (int c = 0; c < COLS; c++) {
+                    legacy[l][r][c] = new String(symbol(l, r, c));
+                }
+            }
+        }
+        long legacyBytes = usedHeap() - base;
+        keepAlive(legacy);
+        legacy = null;
+
+        base = usedHeap();
+        TileGrid grid = new TileGrid(LAYERS, ROWS, COLS);
+        for (int l = 0; l < LAYERS; l++) {
+            for (int r = 0; r < ROWS; r++) {
+                for (int c = 0; c < COLS; c++) {
+                    grid.set(l, r, c, TileGrid.toId(symbol(l, r, c)));
+                }
+            }
+        }
+        long gridBytes = usedHeap() - base;
+        keepAlive(grid);
+
+        long cells = (long) LAYERS * ROWS * COLS;
+        System.out.printf("cells:           %d%n", cells);
+        System.out.printf("String[][][]:    %,d bytes (%.1f bytes/cell)%n", legacyBytes, (double) legacyBytes / cells);
+        System.out.printf("TileGrid:        %,d bytes (%.1f bytes/cell)%n", gridBytes, (double) gridBytes / cells);
+    }
+
+    // mix of tiles and specials roughly like a painted map
+    static String symbol(int layer, int row, int col) {
+        int n = (row * 31 + col * 17 + layer) % (TILE_COUNT + 3);
+        if (n == 0) return "e0";
+        if (n == 1) return "c0";
+        if (n == 2) return "k0";
+        return "t" + (n - 3);
+    }
+
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static volatile Object sink;
+
+    static void keepAlive(Object o) {
+        sink = o;
+        sink = null;
+    }
+}
@@ -0,0 +1,89 @@
+package bench;
+
+import main.TextMapFormat;
+import main.TileGrid;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load and save times for a 1000x1000 map with 4 text layers, comparing the
+ * old readLine/split and String.join/PrintWriter code with TextMapFormat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class TextMapBenchmark {
+    static final int LAYERS = 4, ROWS = 1000, COLS = 1000;
+
+    File dir;
+    TileGrid grid;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("textmap-bench").toFile();
+        grid = BenchData.randomGrid(LAYERS, ROWS, COLS, 3000);
+        for (int l = 0; l < LAYERS; l++) TextMapFormat.write(grid, l, layerFile(dir, l));
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (int l = 0; l < LAYERS; l++) layerFile(dir, l).delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        for (int l = 0; l < LAYERS; l++) TextMapFormat.write(grid, l, layerFile(dir, l));
+    }
+
+    @Benchmark
+    public int load() throws IOException {
+        int cells = 0;
+        for (int l = 0; l < LAYERS; l++) cells += TextMapFormat.read(layerFile(dir, l)).ids.length;
+        return cells;
+    }
+
+    @Benchmark
+    public void legacySave() throws IOException {
+        for (int l = 0; l < LAYERS; l++) legacyWrite(grid, l, layerFile(dir, l));
+    }
+
+    @Benchmark
+    public int legacyLoad() throws IOException {
+        int rows = 0;
+        for (int l = 0; l < LAYERS; l++) rows += legacyRead(layerFile(dir, l)).length;
+        return rows;
+    }
+
+    static File layerFile(File dir, int layer) {
+        return new File(dir, "map_layer_" + layer + ".txt");
+    }
+
+    static void legacyWrite(TileGrid grid, int layer, File file) throws IOException {
+        String[] row = new String[COLS];
+        try (PrintWriter pw = new PrintWriter(file)) {
+            for (int r = 0; r < ROWS; r++) {
+                for (int c = 0; c < COLS; c++) row[c] = TileGrid.toSymbol(grid.get(layer, r, c));
+                pw.println(String.join(" ", row));
+            }
+        }
+    }
+
+    static String[][] legacyRead(File file) throws IOException {
+        String[][] rows = new String[ROWS][];
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            for (int i = 0; i < ROWS; i++) {
+                String line = br.readLine();
+                if (line == null) break;
+                rows[i] = line.split(" ");
+            }
+        }
+        return rows;
+    }
+}
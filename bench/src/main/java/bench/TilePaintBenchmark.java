@@ -0,0 +1,86 @@
+package bench;
+
+import main.Tile;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full-map paint time with getSubimage tiles scaled on every draw (the old
+ * import) against compatible tile copies drawn from their cached scaled variant.
+ * <p>
+ * Paints a 100x100 map with two layers into an offscreen image at tile sizes
+ * 16 and 32.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TilePaintBenchmark {
+    static final int ROWS = 100, COLS = 100;
+
+    @Param({"16", "32"})
+    int size;
+
+    Tile[] views;
+    Tile[] copies;
+    int[][] map;
+    BufferedImage target;
+
+    @Setup
+    public void setup() {
+        BufferedImage sheet = BenchData.createSheet(16, 16);
+        int tileCount = 16 * 16;
+        int t = BenchData.TILE_SIZE;
+
+        views = new Tile[tileCount];
+        copies = new Tile[tileCount];
+        for (int i = 0; i < tileCount; i++) {
+            BufferedImage sub = sheet.getSubimage((i % 16) * t, (i / 16) * t, t, t);
+            views[i] = new Tile(sub);
+            copies[i] = Tile.copyOf(sub);
+        }
+
+        Random random = new Random(42);
+        map = new int[2][ROWS * COLS];
+        for (int[] layer : map) {
+            for (int i = 0; i < layer.length; i++) {
+                layer[i] = random.nextInt(tileCount);
+            }
+        }
+        target = new BufferedImage(COLS * size, ROWS * size, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    @Benchmark
+    public BufferedImage subimageScaled() {
+        Graphics2D g2 = target.createGraphics();
+        for (int[] layer : map) {
+            for (int r = 0; r < ROWS; r++) {
+                for (int c = 0; c < COLS; c++) {
+                    g2.drawImage(views[layer[r * COLS + c]].image, c * size, r * size, size, size, null);
+                }
+            }
+        }
+        g2.dispose();
+        return target;
+    }
+
+    @Benchmark
+    public BufferedImage compatibleCachedScale() {
+        Graphics2D g2 = target.createGraphics();
+        for (int[] layer : map) {
+            for (int r = 0; r < ROWS; r++) {
+                for (int c = 0; c < COLS; c++) {
+                    g2.drawImage(copies[layer[r * COLS + c]].scaled(size), c * size, r * size, null);
+                }
+            }
+        }
+        g2.dispose();
+        return target;
+    }
+}
@@ -0,0 +1,315 @@
+package main;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crash recovery for the open map: a {@code .tmap} snapshot plus a write-ahead
+ * journal of the cells changed since that snapshot.
+ * <p>
+ * Cell changes reported by the model are queued on the writer thread and
+ * appended to the journal in batches by a background thread, so painting never
+ * waits for disk I/O. Every {@value #COMPACT_SECONDS} seconds, and right away
+ * after a resize, load or a change too large to journal cell by cell, the
+ * journal is compacted: a new snapshot is written, then a fresh journal that
+ * names it replaces the old one, then the old snapshot is deleted. A crash at
+ * any point leaves a journal whose snapshot still exists.
+ * <p>
+ * A clean {@link #close} deletes both files, so a journal found by
+ * {@link #recover} means the last session didn't shut down cleanly. The folder
+ * is locked while an editor uses it, so every map being autosaved at once
+ * needs a folder of its own.
+ */
+public class Autosave implements MapModel.Listener {
+    static final String JOURNAL = "journal.bin";
+    static final String LOCK = "session.lock";
+    private static final int MAGIC = 0x544d4a31; // "TMJ1"
+    private static final int HEADER_BYTES = 12;  // magic, snapshot generation
+    private static final int RECORD_INTS = 4;    // layer, row, col, id
+
+    static final int FLUSH_MILLIS = 500;
+    static final int COMPACT_SECONDS = 60;
+    // changes touching more cells than this are saved as a snapshot instead
+    private static final int MAX_JOURNALED_CELLS = 1 << 14;
+
+    private final MapModel model;
+    private final File dir;
+    private final Executor writerThread;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    // filled on the writer thread, drained by the autosave thread
+    private final Object queueLock = new Object();
+    private int[] queue = new int[RECORD_INTS * 1024];
+    private int queued = 0;
+    private TileGrid pendingSnapshot;
+
+    // autosave thread only
+    private final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "autosave");
+        t.setDaemon(true);
+        return t;
+    });
+    private long generation = -1;
+    private FileChannel journal;
+    private volatile long journaledRecords = 0;
+    private volatile boolean failed = false;
+
+    private Autosave(MapModel model, File dir, Executor writerThread, FileChannel lockChannel, FileLock lock) {
+        this.model = model;
+        this.dir = dir;
+        this.writerThread = writerThread;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    // Generation of the journal left in the folder, its snapshot is deleted by the first compaction
+    private static long readGeneration(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            header.flip();
+            return header.remaining() == HEADER_BYTES && header.getInt() == MAGIC ? header.getLong() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Locks the autosave folder for model, whose writer thread runs tasks given
+     * to writerThread. Returns null when another editor is using the folder.
+     */
+    public static Autosave open(MapModel model, File dir, Executor writerThread) throws IOException {
+        Files.createDirectories(dir.toPath());
+        FileChannel channel = FileChannel.open(new File(dir, LOCK).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // held by this JVM already
+        }
+        if (lock == null) {
+            channel.close();
+            return null;
+        }
+        Autosave autosave = new Autosave(model, dir, writerThread, channel, lock);
+        autosave.generation = readGeneration(new File(dir, JOURNAL));
+        return autosave;
+    }
+
+    /**
+     * The map left behind by a session that didn't close cleanly: the snapshot
+     * with the journal replayed on top. Null if there is nothing to recover.
+     * Call before {@link #start}, which starts over with the current map.
+     */
+    public TileGrid recover() throws IOException {
+        File file = new File(dir, JOURNAL);
+        if (!file.exists()) return null;
+
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (bytes.remaining() < HEADER_BYTES || bytes.getInt() != MAGIC) {
+            throw new IOException(file.getName() + " is not an autosave journal");
+        }
+        TileGrid grid = BinaryMapFormat.read(snapshotFile(bytes.getLong()));
+
+        // a record cut off by the crash is simply ignored
+        IntBuffer records = bytes.asIntBuffer();
+        while (records.remaining() >= RECORD_INTS) {
+            int layer = records.get(), row = records.get(), col = records.get(), id = records.get();
+            if (layer < 0 || layer >= grid.getLayerCount() || row < 0 || row >= grid.getRows()
+                    || col < 0 || col >= grid.getCols() || id < 0) continue;
+            grid.set(layer, row, col, id);
+        }
+        return grid;
+    }
+
+    /** Writes the first snapshot and starts listening to the model, call on the writer thread. */
+    public void start() {
+        model.addListener(this);
+        compact();
+        io.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        io.scheduleWithFixedDelay(() -> {
+            if (journaledRecords > 0 || failed) writerThread.execute(this::compact);
+        }, COMPACT_SECONDS, COMPACT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void mapChanged(MapModel model, Rectangle dirty) {
+        int layers = model.getLayerCount();
+        if (dirty == null || (long) dirty.width * dirty.height * layers > MAX_JOURNALED_CELLS) {
+            compact();
+            return;
+        }
+
+        // the current ids of every layer in the rectangle, the journal doesn't
+        // need to know what the change was
+        TileGrid grid = model.getGrid();
+        synchronized (queueLock) {
+            int needed = queued + dirty.width * dirty.height * layers * RECORD_INTS;
+            if (needed > queue.length) queue = Arrays.copyOf(queue, Math.max(needed, queue.length * 2));
+            for (int l = 0; l < layers; l++) {
+                for (int r = dirty.y; r < dirty.y + dirty.height; r++) {
+                    for (int c = dirty.x; c < dirty.x + dirty.width; c++) {
+                        queue[queued++] = l;
+                        queue[queued++] = r;
+                        queue[queued++] = c;
+                        queue[queued++] = grid.get(l, r, c);
+                    }
+                }
+            }
+        }
+    }
+
+    // Writer thread: queues a snapshot, everything queued so far is part of it
+    private void compact() {
+        if (io.isShutdown()) return;
+        TileGrid snapshot = model.snapshot();
+        synchronized (queueLock) {
+            pendingSnapshot = snapshot;
+            queued = 0;
+        }
+        io.execute(this::flush);
+    }
+
+    // Autosave thread: writes the queued snapshot and cell records
+    private void flush() {
+        TileGrid snapshot;
+        int[] records;
+        int count;
+        synchronized (queueLock) {
+            snapshot = pendingSnapshot;
+            pendingSnapshot = null;
+            records = queue;
+            count = queued;
+            if (count > 0) {
+                queue = new int[Math.max(RECORD_INTS * 1024, count)];
+                queued = 0;
+            }
+        }
+
+        try {
+            if (snapshot != null) writeSnapshot(snapshot);
+            if (count > 0 && journal != null) append(records, count);
+            failed = false;
+        } catch (IOException e) {
+            if (!failed) e.printStackTrace(); // report once, keep trying on the next flush
+            failed = true;
+        }
+    }
+
+    private void writeSnapshot(TileGrid snapshot) throws IOException {
+        long next = generation + 1;
+        File snapshotFile = snapshotFile(next);
+        BinaryMapFormat.write(snapshot, snapshotFile, false);
+        MapFiles.sync(snapshotFile.toPath());
+        MapFiles.syncDirectory(dir.toPath());
+
+        // the new journal only becomes current once its snapshot is complete
+        File temp = new File(dir, JOURNAL + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putLong(next);
+            header.flip();
+            while (header.hasRemaining()) channel.write(header);
+            channel.force(true);
+        }
+        if (journal != null) journal.close();
+        MapFiles.move(temp.toPath(), new File(dir, JOURNAL).toPath());
+        MapFiles.syncDirectory(dir.toPath()); // the old snapshot goes only once the new journal is durable
+        journal = FileChannel.open(new File(dir, JOURNAL).toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journaledRecords = 0;
+
+        if (generation >= 0) Files.deleteIfExists(snapshotFile(generation).toPath());
+        generation = next;
+    }
+
+    private void append(int[] records, int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(count * 4);
+        buf.asIntBuffer().put(records, 0, count);
+        while (buf.hasRemaining()) journal.write(buf);
+        journal.force(false);
+        journaledRecords += count / RECORD_INTS;
+    }
+
+    /** Stops autosaving and deletes the journal and snapshot, for a clean exit. */
+    public void close() {
+        model.removeListener(this);
+        io.shutdown(); // a write in progress finishes first
+        try {
+            io.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finish(true);
+    }
+
+    /**
+     * Stops autosaving without waiting for the autosave thread, for switching
+     * to another map; call on the writer thread. The journal and snapshot are
+     * deleted once written, the write of this map to its own file, succeeds,
+     * and kept for {@link #recover} if it fails. The returned future completes
+     * when the folder is unlocked again.
+     */
+    public Future<?> closeAfter(Future<?> written) {
+        model.removeListener(this);
+        Future<?> closed = io.submit(() -> {
+            flush(); // whatever was queued since the last flush
+            finish(written == null || succeeded(written));
+        });
+        io.shutdown();
+        return closed;
+    }
+
+    private static boolean succeeded(Future<?> write) {
+        try {
+            write.get();
+            return true;
+        } catch (ExecutionException | CancellationException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Closes the journal, deletes it and its snapshot if asked to, and unlocks the folder
+    private void finish(boolean delete) {
+        try {
+            if (journal != null) journal.close();
+            if (delete) {
+                Files.deleteIfExists(new File(dir, JOURNAL).toPath());
+                if (generation >= 0) Files.deleteIfExists(snapshotFile(generation).toPath());
+            }
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    private File snapshotFile(long generation) {
+        return new File(dir, "snapshot-" + generation + "." + BinaryMapFormat.EXTENSION);
+    }
+}
@@ -0,0 +1,180 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless entry point that exports maps without the editor window, e.g. from a build script:
+ * <pre>
+ * java -cp editor.jar main.BatchExport --tiles sheets/ --out build/maps maps/town maps/cave.tmap
+ * </pre>
+ * Tilesheets are imported once, in the order given (the files of a folder sorted
+ * by name), so every map sees the same tile symbols as in the editor. Each map is
+ * loaded and exported like "Export Map + Tiles" into its own folder, several maps
+ * at a time.
+ */
+public class BatchExport {
+    private static final String USAGE = String.join("\n",
+            "usage: BatchExport [options] <map folder or ." + BinaryMapFormat.EXTENSION + " file>...",
+            "  --tiles <file|folder>  tilesheet to import, repeatable, folders are read in name order",
+            "  --out <folder>         export to <folder>/<map name> instead of <map>/export",
+            "  --layers <n>           layers of text maps (default 4)",
+            "  --tile-size <n>        tile size in pixels (default 16)",
+            "  --jobs <n>             maps exported at the same time (default: number of cores)",
+            "  --full                 rewrite every file instead of only changed ones",
+            "  --referenced-only      only export tiles used by the map",
+            "  --atlas                pack tiles into atlas pages plus " + TileAtlas.INDEX + " instead of one PNG each",
+            "  --metrics <file>       write import, load and export timings to <file> at the end");
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        List<File> sheets = new ArrayList<>();
+        List<File> maps = new ArrayList<>();
+        File out = null, metrics = null;
+        int layerCount = 4, tileSize = 16, jobs = Workers.THREADS;
+        boolean incremental = true, referencedOnly = false, packAtlas = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--tiles": addSheets(new File(args[++i]), sheets); break;
+                    case "--out": out = new File(args[++i]); break;
+                    case "--layers": layerCount = Integer.parseInt(args[++i]); break;
+                    case "--tile-size": tileSize = Integer.parseInt(args[++i]); break;
+                    case "--jobs": jobs = Integer.parseInt(args[++i]); break;
+                    case "--full": incremental = false; break;
+                    case "--referenced-only": referencedOnly = true; break;
+                    case "--atlas": packAtlas = true; break;
+                    case "--metrics": metrics = new File(args[++i]); break;
+                    default:
+                        if (args[i].startsWith("--")) throw new IllegalArgumentException("unknown option " + args[i]);
+                        maps.add(new File(args[i]));
+                }
+            }
+            if (maps.isEmpty()) throw new IllegalArgumentException("no maps given");
+            if (layerCount < 1 || tileSize < 1 || jobs < 1) throw new IllegalArgumentException("sizes must be positive");
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "missing option value" : e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        Metrics.setEnabled(metrics != null);
+        TileRegistry tiles;
+        try {
+            tiles = importSheets(sheets, tileSize);
+        } catch (Exception e) {
+            System.err.println("tile import failed: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.out.println(sheets.size() + " tilesheets, " + tiles.size() + " tiles, "
+                + tiles.getUniqueCount() + " distinct");
+
+        // Maps get their own pool: an export blocks on its file tasks in
+        // Workers.POOL, running it there as well could starve those tasks.
+        ExecutorService mapPool = Executors.newFixedThreadPool(Math.min(jobs, maps.size()));
+        List<Future<String>> results = new ArrayList<>();
+        for (File map : maps) {
+            File exportDir = out != null ? new File(out, mapName(map))
+                    : new File(map.isDirectory() ? map : map.getParentFile(), "export");
+            int layers = layerCount;
+            boolean changedOnly = incremental, usedOnly = referencedOnly, atlas = packAtlas;
+            results.add(mapPool.submit(() -> exportMap(map, layers, tiles, exportDir, changedOnly, usedOnly, atlas)));
+        }
+        mapPool.shutdown();
+
+        int failed = 0;
+        for (int i = 0; i < maps.size(); i++) {
+            try {
+                System.out.println(results.get(i).get());
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println(maps.get(i) + ": " + e.getCause().getMessage());
+            }
+        }
+        if (metrics != null) {
+            try {
+                Metrics.dump(metrics);
+            } catch (IOException e) {
+                System.err.println("cannot write metrics: " + e.getMessage());
+            }
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static String exportMap(File map, int layerCount, TileRegistry tiles, File exportDir,
+                                    boolean incremental, boolean referencedOnly, boolean packAtlas) throws Exception {
+        long start = System.nanoTime();
+        TileGrid grid;
+        if (map.getName().endsWith("." + BinaryMapFormat.EXTENSION)) {
+            grid = BinaryMapFormat.read(map);
+        } else {
+            grid = MapFiles.loadLayers(map, layerCount, Workers.POOL, new TaskProgress());
+        }
+
+        int missingTiles = 0;
+        int[] row = new int[grid.getCols()];
+        for (int l = 0; l < grid.getLayerCount(); l++) {
+            for (int r = 0; r < grid.getRows(); r++) {
+                grid.getRow(l, r, row, 0);
+                for (int id : row) {
+                    if (id - TileGrid.FIRST_TILE >= tiles.size()) missingTiles++;
+                }
+            }
+        }
+
+        if (!exportDir.isDirectory() && !exportDir.mkdirs()) throw new IOException("Cannot create " + exportDir);
+        int written = MapFiles.export(grid, tiles.toArray(), tiles.canonicalIndexes(), exportDir, incremental,
+                referencedOnly, packAtlas, Workers.POOL, new TaskProgress());
+
+        String result = map + ": " + written + " files written to " + exportDir
+                + " in " + (System.nanoTime() - start) / 1_000_000 + " ms";
+        if (missingTiles > 0) result += " (" + missingTiles + " cells use tiles that are not imported)";
+        return result;
+    }
+
+    // Imports all sheets in parallel, the tiles end up in argument order like in the editor
+    private static TileRegistry importSheets(List<File> sheets, int tileSize) throws Exception {
+        TileRegistry registry = new TileRegistry();
+        List<Future<TilesheetImporter.Sheet>> futures =
+                TilesheetImporter.submit(sheets.toArray(new File[0]), tileSize, Workers.POOL, null);
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                TilesheetImporter.Sheet sheet = futures.get(i).get();
+                registry.addSheet(sheet.name, sheet.tiles);
+            } catch (ExecutionException e) {
+                throw new Exception(sheets.get(i).getName() + ": " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return registry;
+    }
+
+    private static void addSheets(File file, List<File> sheets) {
+        if (!file.isDirectory()) {
+            sheets.add(file);
+            return;
+        }
+        File[] files = file.listFiles((dir, name) -> {
+            String lower = name.toLowerCase();
+            return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+        });
+        if (files == null) return;
+        Arrays.sort(files);
+        sheets.addAll(Arrays.asList(files));
+    }
+
+    private static String mapName(File map) {
+        String name = map.getName();
+        String suffix = "." + BinaryMapFormat.EXTENSION;
+        return name.endsWith(suffix) ? name.substring(0, name.length() - suffix.length()) : name;
+    }
+}
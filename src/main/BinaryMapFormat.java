@@ -0,0 +1,209 @@
+package main;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Single-file binary map format (.tmap) for working saves.
+ * <pre>
+ * "TMAP" magic, version, flags, rows, cols, layer count   (int32 each after the magic)
+ * symbol count, then per symbol: uint16 length + UTF-8 bytes
+ * per layer, rows * cols symbol table indexes, uint16 when the table
+ * has at most 65536 entries and int32 otherwise
+ * </pre>
+ * All numbers are big endian. With {@link #FLAG_DEFLATE} the cell data after the
+ * symbol table is deflate compressed. A file is read into a single buffer and
+ * parsed from there, files too large for the heap from a memory-mapped one.
+ * The game still gets the text layers from export.
+ */
+public class BinaryMapFormat {
+    public static final String EXTENSION = "tmap";
+    public static final int FLAG_DEFLATE = 1;
+
+    private static final int MAGIC = 0x544d4150; // "TMAP"
+    private static final int VERSION = 1;
+    // larger files are memory-mapped; a mapping holds on to the file until it is collected
+    private static final long MAX_HEAP_READ = 64L << 20;
+
+    public static void write(TileGrid grid, File file, boolean compress) throws IOException {
+        long start = Metrics.start();
+        // symbol table: only the ids the map actually uses, in id order
+        int cols = grid.getCols();
+        int[] cells = new int[cols];
+        boolean[] used = new boolean[TileGrid.FIRST_TILE];
+        for (int l = 0; l < grid.getLayerCount(); l++) {
+            for (int r = 0; r < grid.getRows(); r++) {
+                grid.getRow(l, r, cells, 0);
+                for (int id : cells) {
+                    if (id >= used.length) used = Arrays.copyOf(used, Math.max(id + 1, used.length * 2));
+                    used[id] = true;
+                }
+            }
+        }
+        int maxId = used.length - 1;
+        int[] tableIndex = new int[maxId + 1];
+        int symbolCount = 0;
+        for (int id = 0; id <= maxId; id++) {
+            if (used[id]) tableIndex[id] = symbolCount++;
+        }
+        boolean wide = symbolCount > 0x10000;
+
+        // written next to the target and renamed over it, a failed save keeps the old file
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath()), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(compress ? FLAG_DEFLATE : 0);
+            out.writeInt(grid.getRows());
+            out.writeInt(grid.getCols());
+            out.writeInt(grid.getLayerCount());
+
+            out.writeInt(symbolCount);
+            for (int id = 0; id <= maxId; id++) {
+                if (!used[id]) continue;
+                byte[] bytes = TileGrid.toSymbol(id).getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+
+            OutputStream body = compress ? new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), 1 << 16) : out;
+            ByteBuffer row = ByteBuffer.allocate(cols * (wide ? 4 : 2)).order(ByteOrder.BIG_ENDIAN);
+            for (int l = 0; l < grid.getLayerCount(); l++) {
+                for (int r = 0; r < grid.getRows(); r++) {
+                    grid.getRow(l, r, cells, 0);
+                    row.clear();
+                    for (int c = 0; c < cols; c++) {
+                        if (wide) {
+                            row.putInt(tableIndex[cells[c]]);
+                        } else {
+                            row.putShort((short) tableIndex[cells[c]]);
+                        }
+                    }
+                    body.write(row.array(), 0, row.position());
+                }
+            }
+            if (body instanceof DeflaterOutputStream) ((DeflaterOutputStream) body).finish();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        MapFiles.move(temp.toPath(), file.toPath());
+        Metrics.SAVE_TMAP.stop(start);
+    }
+
+    public static TileGrid read(File file) throws IOException {
+        long start = Metrics.start();
+        TileGrid grid = readFile(file);
+        Metrics.LOAD_TMAP.stop(start);
+        return grid;
+    }
+
+    private static TileGrid readFile(File file) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= MAX_HEAP_READ) {
+                buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                }
+                buf.flip();
+            } else {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+        try {
+            return parse(buf.order(ByteOrder.BIG_ENDIAN));
+        } catch (BufferUnderflowException | ArithmeticException e) {
+            throw new IOException(file.getName() + " is truncated or corrupt", e);
+        } catch (IOException e) {
+            throw new IOException(file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static TileGrid parse(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 28 || buf.getInt() != MAGIC) throw new IOException("Not a ." + EXTENSION + " map file");
+        int version = buf.getInt();
+        if (version != VERSION) throw new IOException("Unsupported map file version " + version);
+        int flags = buf.getInt();
+        int rows = buf.getInt();
+        int cols = buf.getInt();
+        int layerCount = buf.getInt();
+        if (rows <= 0 || cols <= 0 || layerCount <= 0) throw new IOException("Invalid map dimensions");
+
+        int symbolCount = buf.getInt();
+        if (symbolCount < 0 || symbolCount > buf.remaining() / 2) throw new IOException("Invalid symbol table");
+        int[] ids = new int[symbolCount];
+        byte[] bytes = new byte[0xffff];
+        for (int i = 0; i < symbolCount; i++) {
+            int length = buf.getShort() & 0xffff;
+            buf.get(bytes, 0, length);
+            String symbol = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            ids[i] = TileGrid.toId(symbol);
+            if (ids[i] == TileGrid.UNKNOWN) throw new IOException("Unknown symbol \"" + symbol + "\" in the symbol table");
+        }
+        boolean wide = symbolCount > 0x10000;
+
+        long bodySize = Math.multiplyExact(Math.multiplyExact((long) rows * cols, layerCount), wide ? 4 : 2);
+        ByteBuffer body = buf.slice();
+        if ((flags & FLAG_DEFLATE) != 0) body = inflate(body, bodySize);
+        if (body.remaining() < bodySize) throw new IOException("Truncated map file");
+
+        // bulk copy one map row at a time, then translate table indexes to ids
+        TileGrid grid = new TileGrid(layerCount, rows, cols);
+        ShortBuffer shorts = wide ? null : body.asShortBuffer();
+        IntBuffer ints = wide ? body.asIntBuffer() : null;
+        short[] shortRow = new short[cols];
+        int[] intRow = new int[cols];
+        for (int l = 0; l < layerCount; l++) {
+            for (int r = 0; r < rows; r++) {
+                if (wide) {
+                    ints.get(intRow);
+                } else {
+                    shorts.get(shortRow);
+                    for (int c = 0; c < cols; c++) intRow[c] = shortRow[c] & 0xffff;
+                }
+                for (int c = 0; c < cols; c++) {
+                    int index = intRow[c];
+                    if (index < 0 || index >= symbolCount) throw new IOException("Bad symbol index " + index);
+                    intRow[c] = ids[index];
+                }
+                grid.setRow(l, r, intRow, 0);
+            }
+        }
+        return grid;
+    }
+
+    private static ByteBuffer inflate(ByteBuffer compressed, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IOException("Map too large to decompress");
+        ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.BIG_ENDIAN);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            while (out.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated map file");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt map data", e);
+        } finally {
+            inflater.end();
+        }
+        out.flip();
+        return out;
+    }
+}
@@ -0,0 +1,84 @@
+package main;
+
+import java.awt.*;
+
+/**
+ * Draws the stacked layers of single map cells. The editor view fills its
+ * {@link ChunkCache} through this, and it needs no window, so the same
+ * rendering can run headless.
+ */
+public class CellRenderer {
+    private MapModel model;
+    private final TileRegistry tiles;
+    private final Color collisionColor;
+    private final Color killColor;
+
+    // running totals for the paint metrics, the painting thread only
+    private long cellsPainted;
+    private long tilesDrawn;
+
+    public CellRenderer(MapModel model, TileRegistry tiles, Color collisionColor, Color killColor) {
+        this.model = model;
+        this.tiles = tiles;
+        this.collisionColor = collisionColor;
+        this.killColor = killColor;
+    }
+
+    public MapModel getModel() {
+        return model;
+    }
+
+    /** Draws another map from now on, the caller drops whatever it cached of the old one. */
+    public void setModel(MapModel model) {
+        this.model = model;
+    }
+
+    /** Cells painted so far, for {@link Metrics#PAINT_CELLS}. */
+    public long getCellsPainted() {
+        return cellsPainted;
+    }
+
+    /** Tile images drawn so far, for {@link Metrics#PAINT_TILES}. */
+    public long getTilesDrawn() {
+        return tilesDrawn;
+    }
+
+    // Draws all layers of one cell bottom to top
+    public void paintCell(Graphics2D g2, int row, int col, int x, int y, int scaledTileSize) {
+        TileGrid grid = model.getGrid();
+        int layerCount = grid.getLayerCount();
+        cellsPainted++;
+
+        // layers below the topmost fully opaque tile are hidden, don't draw them
+        int firstLayer = 0;
+        for (int l = layerCount - 1; l > 0; l--) {
+            Tile tile = tiles.get(grid.get(l, row, col));
+            if (tile != null && tile.isOpaque()) {
+                firstLayer = l;
+                break;
+            }
+        }
+
+        for (int l = firstLayer; l < layerCount; l++) {
+            int id = grid.get(l, row, col);
+            if (id == TileGrid.EMPTY) continue; // skip empty tiles
+
+            if (id == TileGrid.COLLISION) {
+                g2.setColor(collisionColor);
+                g2.fillRect(x, y, scaledTileSize, scaledTileSize);
+                continue;
+            }
+            if (id == TileGrid.KILL) {
+                g2.setColor(killColor);
+                g2.fillRect(x, y, scaledTileSize, scaledTileSize);
+                continue;
+            }
+
+            Tile tile = tiles.get(id);
+            if (tile == null || tile.isEmpty()) continue; // not imported or fully transparent
+
+            g2.drawImage(tile.scaled(scaledTileSize), x, y, null);
+            tilesDrawn++;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package main;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the composited layers of the map in chunk images so the editor only
+ * has to blit the chunks that intersect the clip instead of redrawing every
+ * cell of every layer on each repaint.
+ * <p>
+ * A chunk covers up to {@value #CHUNK_TILES} cells square but never more than
+ * {@value #MAX_CHUNK_SIZE} pixels square, so it holds fewer cells the further
+ * the view is zoomed in and the cache fits a full screen at any zoom. Once a
+ * single cell is larger than that, cells are painted directly.
+ */
+public class ChunkCache {
+    static final int CHUNK_TILES = 32;     // chunk width and height in cells, at most
+    static final int MAX_CHUNK_SIZE = 512; // chunk width and height in pixels, at most
+
+    // upper bound on cached pixels, least recently painted chunks are dropped first
+    private static final long MAX_CACHED_PIXELS = 16L * 1024 * 1024;
+
+    private final CellRenderer renderer;
+    private final LinkedHashMap<Long, BufferedImage> chunks = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedPixels = 0;
+    private int cachedTileSize = -1; // scaled tile size the cached chunks were rendered at
+    private int chunkTiles = CHUNK_TILES; // cells per chunk side at that size
+
+    public ChunkCache(CellRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /** Draws every chunk intersecting the clip, rendering missing chunks on demand. */
+    public void paint(Graphics2D g2, Rectangle clip, int scaledTileSize) {
+        if (scaledTileSize > MAX_CHUNK_SIZE) {
+            // a chunk of one cell would already be too big to cache
+            invalidateAll();
+            cachedTileSize = -1;
+            paintCells(g2, clip, scaledTileSize);
+            return;
+        }
+        if (scaledTileSize != cachedTileSize) {
+            invalidateAll();
+            cachedTileSize = scaledTileSize;
+            chunkTiles = Math.max(1, Math.min(CHUNK_TILES, MAX_CHUNK_SIZE / scaledTileSize));
+        }
+
+        int chunkSize = chunkTiles * scaledTileSize;
+        int chunkRows = (renderer.getModel().getRows() + chunkTiles - 1) / chunkTiles;
+        int chunkCols = (renderer.getModel().getCols() + chunkTiles - 1) / chunkTiles;
+
+        int firstRow = Math.max(0, clip.y / chunkSize);
+        int firstCol = Math.max(0, clip.x / chunkSize);
+        int lastRow = Math.min(chunkRows - 1, (clip.y + clip.height - 1) / chunkSize);
+        int lastCol = Math.min(chunkCols - 1, (clip.x + clip.width - 1) / chunkSize);
+
+        for (int cr = firstRow; cr <= lastRow; cr++) {
+            for (int cc = firstCol; cc <= lastCol; cc++) {
+                BufferedImage chunk = getChunk(cr, cc, scaledTileSize);
+                g2.drawImage(chunk, cc * chunkSize, cr * chunkSize, null);
+            }
+        }
+    }
+
+    // Paints the cells intersecting the clip straight into g2, for zooms too deep to cache
+    private void paintCells(Graphics2D g2, Rectangle clip, int s) {
+        int firstRow = Math.max(0, clip.y / s);
+        int firstCol = Math.max(0, clip.x / s);
+        int lastRow = Math.min(renderer.getModel().getRows() - 1, (clip.y + clip.height - 1) / s);
+        int lastCol = Math.min(renderer.getModel().getCols() - 1, (clip.x + clip.width - 1) / s);
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstCol; c <= lastCol; c++) {
+                renderer.paintCell(g2, r, c, c * s, r * s, s);
+            }
+        }
+    }
+
+    /** Re-renders a single cell of its cached chunk, if that chunk is cached. */
+    public void invalidateCell(int row, int col) {
+        int cr = row / chunkTiles;
+        int cc = col / chunkTiles;
+        BufferedImage chunk = chunks.get(key(cr, cc));
+        if (chunk == null) return;
+
+        int s = cachedTileSize;
+        int x = (col - cc * chunkTiles) * s;
+        int y = (row - cr * chunkTiles) * s;
+
+        Graphics2D g2 = chunk.createGraphics();
+        g2.setComposite(AlphaComposite.Clear);
+        g2.fillRect(x, y, s, s);
+        g2.setComposite(AlphaComposite.SrcOver);
+        renderer.paintCell(g2, row, col, x, y, s);
+        g2.dispose();
+    }
+
+    /** Drops the cached chunks overlapping a rectangle of cells, they are rendered again on the next paint. */
+    public void invalidateRegion(Rectangle cells) {
+        int firstRow = Math.max(0, cells.y / chunkTiles);
+        int firstCol = Math.max(0, cells.x / chunkTiles);
+        int lastRow = (cells.y + cells.height - 1) / chunkTiles;
+        int lastCol = (cells.x + cells.width - 1) / chunkTiles;
+        for (int cr = firstRow; cr <= lastRow; cr++) {
+            for (int cc = firstCol; cc <= lastCol; cc++) {
+                BufferedImage chunk = chunks.remove(key(cr, cc));
+                if (chunk != null) cachedPixels -= (long) chunk.getWidth() * chunk.getHeight();
+            }
+        }
+    }
+
+    /** Drops every cached chunk, e.g. after a resize, load or tile import. */
+    public void invalidateAll() {
+        chunks.clear();
+        cachedPixels = 0;
+    }
+
+    private BufferedImage getChunk(int cr, int cc, int s) {
+        long key = key(cr, cc);
+        BufferedImage chunk = chunks.get(key);
+        if (chunk != null) return chunk;
+
+        int rowStart = cr * chunkTiles;
+        int colStart = cc * chunkTiles;
+        int rowEnd = Math.min(renderer.getModel().getRows(), rowStart + chunkTiles);
+        int colEnd = Math.min(renderer.getModel().getCols(), colStart + chunkTiles);
+
+        chunk = Tile.createImage((colEnd - colStart) * s, (rowEnd - rowStart) * s, Transparency.TRANSLUCENT);
+        Graphics2D g2 = chunk.createGraphics();
+        for (int r = rowStart; r < rowEnd; r++) {
+            for (int c = colStart; c < colEnd; c++) {
+                renderer.paintCell(g2, r, c, (c - colStart) * s, (r - rowStart) * s, s);
+            }
+        }
+        g2.dispose();
+
+        chunks.put(key, chunk);
+        cachedPixels += (long) chunk.getWidth() * chunk.getHeight();
+        evict(key);
+        return chunk;
+    }
+
+    private void evict(long keep) {
+        Iterator<Map.Entry<Long, BufferedImage>> it = chunks.entrySet().iterator();
+        while (cachedPixels > MAX_CACHED_PIXELS && it.hasNext()) {
+            Map.Entry<Long, BufferedImage> entry = it.next();
+            if (entry.getKey() == keep) continue;
+            BufferedImage img = entry.getValue();
+            cachedPixels -= (long) img.getWidth() * img.getHeight();
+            it.remove();
+        }
+    }
+
+    private static long key(int cr, int cc) {
+        return ((long) cr << 32) | (cc & 0xffffffffL);
+    }
+}
@@ -0,0 +1,230 @@
+package main;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Structure of the collision layer: collision ("c0") and kill ("k0") cells
+ * merged into rectangles, the connected walkable regions and which cells can
+ * be reached from a spawn cell.
+ * <p>
+ * Every other id counts as walkable. Regions are 4-connected and kill cells
+ * split them just like collision cells, so "reachable" means reachable without
+ * dying. Runs in about linear time over the layer and keeps regions as runs of
+ * walkable cells per row, so its memory grows with the structure of the map
+ * rather than its area; call it with a snapshot when running off the EDT.
+ */
+public class CollisionAnalysis {
+    public static final String RECTS_FILE = "COLLISION_RECTS.txt";
+
+    public static class Result {
+        public final int rows, cols;
+        public final List<Rectangle> collisionRects; // in cells, x = column
+        public final List<Rectangle> killRects;
+        public final int regionCount;
+        public final Point spawn;          // (col, row), or null
+        public final int reachableCells;   // 0 without a walkable spawn cell
+
+        // walkable cells as runs: row r has runs firstRun[r] until firstRun[r + 1],
+        // run i covers columns runStart[i] until runEnd[i] and lies in region runRegion[i]
+        private final int[] firstRun;
+        private final int[] runStart, runEnd, runRegion;
+        private final int spawnRegion;
+
+        Result(int rows, int cols, List<Rectangle> collisionRects, List<Rectangle> killRects,
+               int[] firstRun, int[] runStart, int[] runEnd, int[] runRegion, int regionCount,
+               Point spawn, int spawnRegion, int reachableCells) {
+            this.rows = rows;
+            this.cols = cols;
+            this.collisionRects = collisionRects;
+            this.killRects = killRects;
+            this.firstRun = firstRun;
+            this.runStart = runStart;
+            this.runEnd = runEnd;
+            this.runRegion = runRegion;
+            this.regionCount = regionCount;
+            this.spawn = spawn;
+            this.spawnRegion = spawnRegion;
+            this.reachableCells = reachableCells;
+        }
+
+        public boolean isWalkable(int row, int col) {
+            return runAt(row, col) >= 0;
+        }
+
+        /** True if the cell can be walked to from the spawn cell. */
+        public boolean isReachable(int row, int col) {
+            int run = runAt(row, col);
+            return spawnRegion != 0 && run >= 0 && runRegion[run] == spawnRegion;
+        }
+
+        // index of the run holding the cell, -1 for collision and kill cells
+        private int runAt(int row, int col) {
+            return findRun(firstRun, runStart, runEnd, row, col);
+        }
+    }
+
+    /** Analyzes one layer, spawn is a (col, row) cell or null. */
+    public static Result analyze(TileGrid grid, int layer, Point spawn) {
+        int rows = grid.getRows();
+        int cols = grid.getCols();
+        List<Rectangle> collisionRects = new ArrayList<>();
+        List<Rectangle> killRects = new ArrayList<>();
+
+        // one pass over the rows: collect the walkable runs and merge rectangles
+        int[] firstRun = new int[rows + 1];
+        int[] runStart = new int[Math.max(16, rows)];
+        int[] runEnd = new int[runStart.length];
+        int runCount = 0;
+        int[] row = new int[cols];
+        List<Rectangle> openCollision = new ArrayList<>();
+        List<Rectangle> openKill = new ArrayList<>();
+        for (int r = 0; r < rows; r++) {
+            grid.getRow(layer, r, row, 0);
+            firstRun[r] = runCount;
+            int c = 0;
+            while (c < cols) {
+                if (blocked(row[c])) {
+                    c++;
+                    continue;
+                }
+                int start = c;
+                while (c < cols && !blocked(row[c])) c++;
+                if (runCount == runStart.length) {
+                    runStart = Arrays.copyOf(runStart, runCount * 2);
+                    runEnd = Arrays.copyOf(runEnd, runCount * 2);
+                }
+                runStart[runCount] = start;
+                runEnd[runCount] = c;
+                runCount++;
+            }
+            openCollision = mergeRow(row, r, TileGrid.COLLISION, openCollision, collisionRects);
+            openKill = mergeRow(row, r, TileGrid.KILL, openKill, killRects);
+        }
+        firstRun[rows] = runCount;
+        collisionRects.addAll(openCollision);
+        killRects.addAll(openKill);
+        // top to bottom, left to right
+        Comparator<Rectangle> order = Comparator.comparingInt((Rectangle rect) -> rect.y).thenComparingInt(rect -> rect.x);
+        collisionRects.sort(order);
+        killRects.sort(order);
+
+        // runs that overlap a run on the row above are in the same region
+        int[] parent = new int[runCount];
+        for (int i = 0; i < runCount; i++) parent[i] = i;
+        for (int r = 1; r < rows; r++) {
+            int above = firstRun[r - 1], i = firstRun[r];
+            while (above < firstRun[r] && i < firstRun[r + 1]) {
+                if (runStart[i] < runEnd[above] && runStart[above] < runEnd[i]) union(parent, above, i);
+                if (runEnd[above] < runEnd[i]) above++;
+                else i++;
+            }
+        }
+        // number the regions from 1 in scan order
+        int[] runRegion = new int[runCount];
+        int regionCount = 0;
+        for (int i = 0; i < runCount; i++) {
+            int root = find(parent, i);
+            runRegion[i] = root == i ? ++regionCount : runRegion[root];
+        }
+
+        int spawnRegion = 0, reachable = 0;
+        if (spawn != null && spawn.y >= 0 && spawn.y < rows && spawn.x >= 0 && spawn.x < cols) {
+            int run = findRun(firstRun, runStart, runEnd, spawn.y, spawn.x);
+            if (run >= 0) {
+                spawnRegion = runRegion[run];
+                for (int i = 0; i < runCount; i++) {
+                    if (runRegion[i] == spawnRegion) reachable += runEnd[i] - runStart[i];
+                }
+            }
+        }
+        return new Result(rows, cols, collisionRects, killRects, firstRun, Arrays.copyOf(runStart, runCount),
+                Arrays.copyOf(runEnd, runCount), runRegion, regionCount, spawn, spawnRegion, reachable);
+    }
+
+    private static boolean blocked(int id) {
+        return id == TileGrid.COLLISION || id == TileGrid.KILL;
+    }
+
+    // Binary search of the row's runs for the one holding col, -1 if col is blocked
+    private static int findRun(int[] firstRun, int[] runStart, int[] runEnd, int row, int col) {
+        int lo = firstRun[row], hi = firstRun[row + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (runEnd[mid] <= col) lo = mid + 1;
+            else if (runStart[mid] > col) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    // Union-find with path halving, the smaller index becomes the root so roots come first in scan order
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a), rb = find(parent, b);
+        if (ra < rb) parent[rb] = ra;
+        else if (rb < ra) parent[ra] = rb;
+    }
+
+    /**
+     * Greedy rectangle merge: every horizontal run of id on this row either
+     * extends the rectangle of the exact same run on the row above or starts a
+     * new one. Rectangles that don't continue are moved to done. Both lists are
+     * ordered by column, so one merge-style pass matches them up.
+     */
+    private static List<Rectangle> mergeRow(int[] row, int r, int id, List<Rectangle> open, List<Rectangle> done) {
+        List<Rectangle> next = new ArrayList<>();
+        int i = 0;
+        int c = 0;
+        while (c < row.length) {
+            if (row[c] != id) {
+                c++;
+                continue;
+            }
+            int start = c;
+            while (c < row.length && row[c] == id) c++;
+
+            while (i < open.size() && open.get(i).x < start) done.add(open.get(i++));
+            Rectangle above = i < open.size() ? open.get(i) : null;
+            if (above != null && above.x == start && above.width == c - start) {
+                above.height++;
+                next.add(above);
+                i++;
+            } else {
+                next.add(new Rectangle(start, r, c - start, 1));
+            }
+        }
+        while (i < open.size()) done.add(open.get(i++));
+        return next;
+    }
+
+    /** Writes the merged rectangles, one "c|k x y width height" line each, in cells. */
+    public static void writeRects(Result result, File file) throws IOException {
+        StringBuilder sb = new StringBuilder("# kind x y width height, in cells\n");
+        appendRects(sb, 'c', result.collisionRects);
+        appendRects(sb, 'k', result.killRects);
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void appendRects(StringBuilder sb, char kind, List<Rectangle> rects) {
+        for (Rectangle rect : rects) {
+            sb.append(kind).append(' ').append(rect.x).append(' ').append(rect.y).append(' ')
+                    .append(rect.width).append(' ').append(rect.height).append('\n');
+        }
+    }
+}
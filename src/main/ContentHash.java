@@ -0,0 +1,46 @@
+package main;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Fast 64-bit content hashes for tile pixels and layer data. Not cryptographic,
+ * equal hashes only mean the content is very likely the same.
+ */
+public final class ContentHash {
+    private static final long SEED = 0x9e3779b97f4a7c15L;
+
+    private ContentHash() {
+    }
+
+    public static long of(int[] data, int from, int to, long seed) {
+        long h = seed ^ (to - from);
+        for (int i = from; i < to; i++) {
+            h = (h ^ data[i]) * 0xff51afd7ed558ccdL;
+            h ^= h >>> 32;
+        }
+        return mix(h);
+    }
+
+    public static long of(int[] data) {
+        return of(data, 0, data.length, SEED);
+    }
+
+    /** Hash of the ARGB pixels and size of an image. */
+    public static long of(BufferedImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        return ofPixels(img.getRGB(0, 0, w, h, null, 0, w), w, h);
+    }
+
+    /** Hash of w x h ARGB pixels, the same as {@link #of(BufferedImage)} for an image with those pixels. */
+    public static long ofPixels(int[] argb, int w, int h) {
+        return of(argb, 0, argb.length, SEED ^ ((long) w << 32 | h));
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
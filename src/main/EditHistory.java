@@ -0,0 +1,237 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Undo/redo log of map edits stored as cell deltas instead of map snapshots.
+ * <p>
+ * An edit (one mouse stroke, a clear or a resize) is recorded between
+ * {@link #beginEdit} and {@link #endEdit} as a list of (layer, row, col, old id,
+ * new id). Writing the same cell twice in one edit keeps the first old id and
+ * the last new id. Undo history is dropped oldest first once it uses more than
+ * the memory budget. An edit that alone outgrows the budget stops being
+ * recorded and can't be undone; the whole history is dropped with it.
+ */
+public class EditHistory {
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int BYTES_PER_CELL = 16; // long key + two int ids
+
+    /** One undoable edit. Cells are applied in order on redo and in reverse on undo. */
+    public static class Edit {
+        public final String name;
+        long[] keys = new long[16];
+        int[] oldIds = new int[16];
+        int[] newIds = new int[16];
+        int count = 0;
+        final int maxCells;  // budget of the history, in cells
+        boolean overflowed;  // grew past maxCells, no longer recorded
+
+        // map size before and after, both -1 unless the edit resized the map
+        public int oldRows = -1, oldCols = -1, newRows = -1, newCols = -1;
+
+        Edit(String name, int maxCells) {
+            this.name = name;
+            this.maxCells = maxCells;
+        }
+
+        public boolean isResize() {
+            return newRows >= 0;
+        }
+
+        public int getCellCount() {
+            return count;
+        }
+
+        public int layer(int i) {
+            return (int) (keys[i] >>> 56);
+        }
+
+        public int row(int i) {
+            return (int) (keys[i] >>> 28) & 0xfffffff;
+        }
+
+        public int col(int i) {
+            return (int) keys[i] & 0xfffffff;
+        }
+
+        long bytes() {
+            return ENTRY_OVERHEAD + (long) keys.length * BYTES_PER_CELL;
+        }
+
+        // False once the edit holds maxCells cells, the arrays never grow past that
+        boolean add(long key, int oldId, int newId) {
+            if (count == keys.length) {
+                if (count >= maxCells) return false;
+                int size = (int) Math.min(count * 2L, maxCells);
+                keys = Arrays.copyOf(keys, size);
+                oldIds = Arrays.copyOf(oldIds, size);
+                newIds = Arrays.copyOf(newIds, size);
+            }
+            keys[count] = key;
+            oldIds[count] = oldId;
+            newIds[count] = newId;
+            count++;
+            return true;
+        }
+
+        void trim() {
+            keys = Arrays.copyOf(keys, count);
+            oldIds = Arrays.copyOf(oldIds, count);
+            newIds = Arrays.copyOf(newIds, count);
+        }
+    }
+
+    private final long maxBytes;
+    private final int maxCells; // most cells a single edit may hold
+    private final ArrayDeque<Edit> undoStack = new ArrayDeque<>();
+    private final ArrayDeque<Edit> redoStack = new ArrayDeque<>();
+    private long usedBytes = 0;
+
+    private Edit current;
+    private final HashMap<Long, Integer> currentCells = new HashMap<>(); // key -> index in current
+
+    public EditHistory(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxCells = (int) Math.max(16, Math.min(Integer.MAX_VALUE - 8, (maxBytes - ENTRY_OVERHEAD) / BYTES_PER_CELL));
+    }
+
+    public void beginEdit(String name) {
+        if (current != null) endEdit();
+        current = new Edit(name, maxCells);
+    }
+
+    /** Records a cell change of the edit in progress, repeated writes to a cell are merged. */
+    public void record(int layer, int row, int col, int oldId, int newId) {
+        if (current == null || current.overflowed || oldId == newId) return;
+        long key = (long) layer << 56 | (long) row << 28 | col;
+        Integer index = currentCells.get(key);
+        if (index != null) {
+            current.newIds[index] = newId;
+        } else if (current.add(key, oldId, newId)) {
+            currentCells.put(key, current.count - 1);
+        } else {
+            overflow();
+        }
+    }
+
+    /**
+     * Records a cell change without looking for an earlier write to the same
+     * cell, for bulk tools that touch every cell at most once. Much cheaper than
+     * {@link #record} on large areas.
+     */
+    public void recordDistinct(int layer, int row, int col, int oldId, int newId) {
+        if (current == null || current.overflowed || oldId == newId) return;
+        if (!current.add((long) layer << 56 | (long) row << 28 | col, oldId, newId)) overflow();
+    }
+
+    // The edit in progress is too large to keep: stop recording it, and since
+    // it can't be undone the older edits can't be reached any more either
+    private void overflow() {
+        current.overflowed = true;
+        current.keys = new long[0];
+        current.oldIds = new int[0];
+        current.newIds = new int[0];
+        current.count = 0;
+        currentCells.clear();
+        undoStack.clear();
+        redoStack.clear();
+        usedBytes = 0;
+    }
+
+    /** Records that the edit in progress changes the map size, after the lost cells were recorded. */
+    public void recordResize(int oldRows, int oldCols, int newRows, int newCols) {
+        if (current == null) return;
+        if (!current.isResize()) {
+            current.oldRows = oldRows;
+            current.oldCols = oldCols;
+        }
+        current.newRows = newRows;
+        current.newCols = newCols;
+    }
+
+    /** Finishes the edit in progress, edits that changed nothing are dropped. */
+    public void endEdit() {
+        Edit edit = current;
+        current = null;
+        currentCells.clear();
+        if (edit == null || edit.overflowed) return;
+
+        // writes that ended up restoring the old id don't need to be kept
+        int n = 0;
+        for (int i = 0; i < edit.count; i++) {
+            if (edit.oldIds[i] == edit.newIds[i]) continue;
+            edit.keys[n] = edit.keys[i];
+            edit.oldIds[n] = edit.oldIds[i];
+            edit.newIds[n] = edit.newIds[i];
+            n++;
+        }
+        edit.count = n;
+        if (n == 0 && !edit.isResize()) return;
+        edit.trim();
+
+        redoStack.clear();
+        undoStack.push(edit);
+        usedBytes += edit.bytes();
+        while (usedBytes > maxBytes && undoStack.size() > 1) {
+            usedBytes -= undoStack.removeLast().bytes();
+        }
+    }
+
+    /** True if {@link #undo} has something to revert, the edit in progress included. */
+    public boolean canUndo() {
+        return !undoStack.isEmpty() || (current != null && current.count > 0);
+    }
+
+    /** True if {@link #redo} has something to apply; recording a change drops the redo stack. */
+    public boolean canRedo() {
+        return !redoStack.isEmpty() && (current == null || current.count == 0);
+    }
+
+    /** Reverts the last edit on grid and returns it, or null if there is nothing to undo. */
+    public Edit undo(TileGrid grid) {
+        endEdit();
+        Edit edit = undoStack.poll();
+        if (edit == null) return null;
+        usedBytes -= edit.bytes();
+
+        if (edit.isResize()) grid.resize(edit.oldRows, edit.oldCols);
+        for (int i = edit.count - 1; i >= 0; i--) {
+            grid.set(edit.layer(i), edit.row(i), edit.col(i), edit.oldIds[i]);
+        }
+        redoStack.push(edit);
+        return edit;
+    }
+
+    /** Applies the last undone edit again and returns it, or null if there is nothing to redo. */
+    public Edit redo(TileGrid grid) {
+        endEdit();
+        Edit edit = redoStack.poll();
+        if (edit == null) return null;
+
+        for (int i = 0; i < edit.count; i++) {
+            grid.set(edit.layer(i), edit.row(i), edit.col(i), edit.newIds[i]);
+        }
+        if (edit.isResize()) grid.resize(edit.newRows, edit.newCols);
+        undoStack.push(edit);
+        usedBytes += edit.bytes();
+        return edit;
+    }
+
+    /** Approximate heap held by the undo and redo stacks. */
+    public long getMemoryBytes() {
+        long bytes = usedBytes;
+        for (Edit e : redoStack) bytes += e.bytes();
+        return bytes;
+    }
+
+    /** Forgets everything, e.g. after loading a different map. */
+    public void clear() {
+        current = null;
+        currentCells.clear();
+        undoStack.clear();
+        redoStack.clear();
+        usedBytes = 0;
+    }
+}
@@ -6,86 +6,141 @@ import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Arrays;
-import javax.imageio.ImageIO;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class MapEditor extends JFrame {
     int tileSize = 16; // size of tiles in tilesheet and map
-    int rows = 20, cols = 20;
     int layerCount = 4;// number of layers
+    static final int MAX_MAP_SIZE = 8192; // rows and cols limit of the resize spinners
 
     int alpha = 48;
     Color magenta = new Color(255, 0, 255, alpha);
     Color red = new Color(255, 0, 0, alpha);
 
-    // 3D map array: [layer][row][col]
-    String[][][] mapLayers = new String[layerCount][rows][cols];
+    // the map: tile ids for every layer and the undo history, see MapModel for
+    // the threading rules and TileGrid for the symbol <-> id mapping
+    static final long HISTORY_BYTES = 64L << 20; // undo budget per map
+    MapModel model = new MapModel(new TileGrid(layerCount, 20, 20), HISTORY_BYTES);
+    final MapModel.Listener viewListener = (m, dirty) -> mapChanged(dirty);
 
-    String currentTile = "e0"; // default tile symbol selected
+    int currentTile = TileGrid.EMPTY; // default tile id selected
     int currentLayer = 0;      // currently active editing layer
 
-    Tile[] tileSet;
-    ArrayList<String> symbolList = new ArrayList<>();
-
-    // New: track spritesheet info
-    ArrayList<String> spritesheetNames = new ArrayList<>();
-    ArrayList<Integer> spritesheetStartIndexes = new ArrayList<>();
+    // imported tiles and the spritesheets they came from
+    TileRegistry tiles = new TileRegistry();
 
     private double zoom = 1.0;
     private final double zoomStep = 0.1;
 
-    JPanel tileButtonsPanel;
+    TilePalette palette;
     EditorPanel editorPanel;
+    CellRenderer cellRenderer = new CellRenderer(model, tiles, magenta, red);
+    ChunkCache chunkCache = new ChunkCache(cellRenderer);
+    Minimap minimap;
+
+    // below this tile size the editor draws the minimap image instead of the tiles
+    static final int MIN_DETAIL_TILE_SIZE = 6;
+
+    // editing tools, index into toolSelector
+    static final int TOOL_BRUSH = 0, TOOL_RECTANGLE = 1, TOOL_BUCKET = 2, TOOL_STAMP = 3, TOOL_SPAWN = 4;
+    static final String[] TOOL_NAMES = {"Brush", "Rectangle", "Bucket Fill", "Stamp", "Spawn Point"};
+    int currentTool = TOOL_BRUSH;
+    Point dragStart;       // cell where a rectangle or stamp selection drag started
+    Rectangle selection;   // cells covered by that drag, outlined while dragging
+    MapTools.Stamp stamp;  // cells copied with a right-drag in stamp mode
+    Point lastCell;        // brush position of the previous mouse event of the stroke
+
+    // cells changed since the last frame, repainted together when repaintTimer fires
+    Rectangle pendingRepaint;
+    Timer repaintTimer = new Timer(16, e -> flushRepaint());
+
+    Autosave autosave; // null while another editor instance owns the autosave folder
+    Workspace.Entry autosavedEntry; // workspace map the autosave covers, null for a map outside one
+    // autosaves of maps switched away from that are still winding down, by folder
+    final HashMap<File, Future<?>> closingAutosaves = new HashMap<>();
+    final HashSet<File> offeredRecovery = new HashSet<>(); // a journal found later is this session's own
+    int autosaveRequest; // only the latest rebind starts its autosave
+
+    // the maps of the open workspace folder, null until one is opened; model is
+    // its active map then and every map shares the tiles above
+    Workspace workspace;
+    DefaultListModel<Workspace.Entry> mapListModel = new DefaultListModel<>();
+    JList<Workspace.Entry> mapList;
+    JLabel workspaceStatus;
+    JButton newMapBtn;
+    JButton undoBtn, redoBtn; // enabled while the map has something to undo or redo
+    boolean updatingMapList; // selection changes made by refreshMapList aren't clicks
+    boolean scratchChanged;  // the map was changed before any workspace was opened
+    boolean loadingMap;      // an empty placeholder is shown, and can't be edited, until the first map opens
 
     JComboBox<String> layerSelector;  // UI control for layer selection
+    JComboBox<String> toolSelector;
+
+    // live collision check, analyzed on a snapshot in the background after edits settle
+    JCheckBox collisionCheck;
+    JLabel collisionStatus;
+    CollisionAnalysis.Result collisionResult;
+    Point spawnCell;           // (col, row) set with the spawn point tool
+    int analysisGeneration;    // results of older analyses are dropped
+    Timer analysisTimer = new Timer(150, e -> runCollisionAnalysis());
+
+    // frame time overlay, see Metrics; refreshed by the timer while it is shown
+    JCheckBox metricsCheck;
+    Rectangle overlayBounds;   // where the overlay was last painted
+    Timer metricsTimer = new Timer(500, e -> repaintOverlay());
+    static final int OVERLAY_WIDTH = 420, OVERLAY_LINE = 15, OVERLAY_LINES = 5;
+    JButton importTilesheetBtn;
+    static final int IMPORT_POLL_MILLIS = 100; // how often a running import checks for Cancel
+    JSpinner rowSpinner, colSpinner;
 
     public MapEditor() {
-        initializeMap();
-        //initializeTiles();
+        repaintTimer.setRepeats(false);
+        analysisTimer.setRepeats(false);
 
         editorPanel = new EditorPanel();
         JScrollPane scrollPane = new JScrollPane(editorPanel);
+        // the overlay sticks to the view, scrolling would blit it along with the map
+        scrollPane.getViewport().addChangeListener(e -> {
+            if (metricsCheck != null && metricsCheck.isSelected()) repaintOverlay();
+        });
         add(scrollPane, BorderLayout.CENTER);
 
-        // Tile Buttons Panel (wrap layout with scroll)
-        tileButtonsPanel = new JPanel(new WrapLayout(FlowLayout.LEFT, 5, 5));
-        populateTileButtons();
+        minimap = new Minimap(this, scrollPane.getViewport());
+        add(minimap, BorderLayout.EAST);
 
-        JScrollPane tilesScrollPane = new JScrollPane(tileButtonsPanel);
+        // Tile palette, only the visible thumbnails are painted
+        palette = new TilePalette(tiles, tileSize, id -> currentTile = id);
+
+        JScrollPane tilesScrollPane = new JScrollPane(palette);
         tilesScrollPane.setPreferredSize(new Dimension(600, 180));
         add(tilesScrollPane, BorderLayout.NORTH);
 
         // Controls Panel
         JPanel controls = new JPanel();
 
-        JSpinner rowSpinner = new JSpinner(new SpinnerNumberModel(rows, 1, 500, 1));
-        JSpinner colSpinner = new JSpinner(new SpinnerNumberModel(cols, 1, 500, 1));
+        rowSpinner = new JSpinner(new SpinnerNumberModel(model.getRows(), 1, MAX_MAP_SIZE, 1));
+        colSpinner = new JSpinner(new SpinnerNumberModel(model.getCols(), 1, MAX_MAP_SIZE, 1));
         JButton resizeBtn = new JButton("Resize Map");
 
         resizeBtn.addActionListener(e -> {
-            rows = (Integer) rowSpinner.getValue();
-            cols = (Integer) colSpinner.getValue();
-
             // Resize each layer's map properly, keep old data when possible
-            String[][][] newMapLayers = new String[layerCount][rows][cols];
-            for (int l = 0; l < layerCount; l++) {
-                for (int r = 0; r < rows; r++) {
-                    for (int c = 0; c < cols; c++) {
-                        if (r < mapLayers[l].length && c < mapLayers[l][0].length) {
-                            newMapLayers[l][r][c] = mapLayers[l][r][c];
-                        } else {
-                            newMapLayers[l][r][c] = "e0"; // default tile
-                        }
-                    }
-                }
-            }
-            mapLayers = newMapLayers;
-
-            updateEditorPanelSize();
+            if (loadingMap) return;
+            model.resize((Integer) rowSpinner.getValue(), (Integer) colSpinner.getValue());
         });
 
         JButton saveBtn = new JButton("Save");
         JButton loadBtn = new JButton("Load");
+        JButton saveBinaryBtn = new JButton("Save ." + BinaryMapFormat.EXTENSION);
+        JButton loadBinaryBtn = new JButton("Open ." + BinaryMapFormat.EXTENSION);
         JButton zoomInBtn = new JButton("+");
         JButton zoomOutBtn = new JButton("-");
         JButton exportBtn = new JButton("Export Map + Tiles");
@@ -96,6 +151,8 @@ public class MapEditor extends JFrame {
             loadMapWithFileChooser();
             editorPanel.repaint();
         });
+        saveBinaryBtn.addActionListener(e -> saveBinaryMapWithFileChooser());
+        loadBinaryBtn.addActionListener(e -> loadBinaryMapWithFileChooser());
 
         zoomInBtn.addActionListener(e -> {
             zoom += zoomStep;
@@ -132,234 +189,740 @@ public class MapEditor extends JFrame {
         controls.add(resizeBtn);
         controls.add(saveBtn);
         controls.add(loadBtn);
+        controls.add(saveBinaryBtn);
+        controls.add(loadBinaryBtn);
         controls.add(zoomInBtn);
         controls.add(zoomOutBtn);
 
         JButton clearTopLayersBtn = new JButton("Clear Top Layers");
         clearTopLayersBtn.addActionListener(e -> {
-            for (int l = 1; l < layerCount; l++) {
-                for (int r = 0; r < rows; r++) {
-                    Arrays.fill(mapLayers[l][r], "e0");
-                }
-            }
-            editorPanel.repaint();
+            if (!loadingMap) model.clearLayers(1, "Clear Top Layers");
         });
         controls.add(clearTopLayersBtn);
 
         controls.add(new JLabel("Edit Layer:"));
         controls.add(layerSelector);
+
+        // Stamp: right-drag copies an area of the current layer, left-click paints it
+        toolSelector = new JComboBox<>(TOOL_NAMES);
+        toolSelector.addActionListener(e -> currentTool = toolSelector.getSelectedIndex());
+        controls.add(new JLabel("Tool:"));
+        controls.add(toolSelector);
+
+        collisionCheck = new JCheckBox("Collision Check");
+        collisionStatus = new JLabel();
+        collisionCheck.addActionListener(e -> {
+            if (collisionCheck.isSelected()) {
+                runCollisionAnalysis();
+            } else {
+                collisionResult = null;
+                collisionStatus.setText("");
+                editorPanel.repaint();
+            }
+        });
+        controls.add(collisionCheck);
+        controls.add(collisionStatus);
+
+        metricsCheck = new JCheckBox("Metrics", Metrics.isEnabled());
+        metricsCheck.addActionListener(e -> {
+            boolean on = metricsCheck.isSelected();
+            if (on) Metrics.resetAll();
+            Metrics.setEnabled(on);
+            if (on) {
+                metricsTimer.start();
+            } else {
+                metricsTimer.stop();
+            }
+            repaintOverlay();
+        });
+        if (metricsCheck.isSelected()) metricsTimer.start();
+        JButton dumpMetricsBtn = new JButton("Dump Metrics");
+        dumpMetricsBtn.addActionListener(e -> dumpMetrics());
+        controls.add(metricsCheck);
+        controls.add(dumpMetricsBtn);
         controls.add(exportBtn);
 
         JButton eraserButton = new JButton("Eraser");
-        eraserButton.addActionListener(e -> currentTile = "e0");
+        eraserButton.addActionListener(e -> {
+            currentTile = TileGrid.EMPTY;
+            palette.clearSelection();
+        });
         controls.add(eraserButton);
         JButton collisionButton = new JButton("Collider");
-        collisionButton.addActionListener(e -> currentTile = "c0");
+        collisionButton.addActionListener(e -> {
+            currentTile = TileGrid.COLLISION;
+            palette.clearSelection();
+        });
         controls.add(collisionButton);
         JButton killButton = new JButton("Killer");
-        killButton.addActionListener(e -> currentTile = "k0");
+        killButton.addActionListener(e -> {
+            currentTile = TileGrid.KILL;
+            palette.clearSelection();
+        });
         controls.add(killButton);
 
-        JButton importTilesheetBtn = new JButton("Import Tilesheet");
+        importTilesheetBtn = new JButton("Import Tilesheet");
         importTilesheetBtn.addActionListener(e -> importTilesheets());
         controls.add(importTilesheetBtn);
 
+        undoBtn = new JButton("Undo");
+        undoBtn.setEnabled(false);
+        undoBtn.addActionListener(e -> undo());
+        controls.add(undoBtn);
+        redoBtn = new JButton("Redo");
+        redoBtn.setEnabled(false);
+        redoBtn.addActionListener(e -> redo());
+        controls.add(redoBtn);
+
+        // Ctrl+Z undoes, Ctrl+Y and Ctrl+Shift+Z redo
+        InputMap keys = getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undo");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "redo");
+        getRootPane().getActionMap().put("undo", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                undo();
+            }
+        });
+        getRootPane().getActionMap().put("redo", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                redo();
+            }
+        });
+
         add(controls, BorderLayout.SOUTH);
+        add(createWorkspacePanel(), BorderLayout.WEST);
+
+        model.addListener(viewListener);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                // maps first, the autosave journal covers a crash until they are written
+                if (!closeWorkspace() && JOptionPane.showConfirmDialog(MapEditor.this, "Exit anyway?",
+                        "Tile Map Editor", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) return;
+                if (autosave != null) autosave.close();
+                for (Future<?> closing : closingAutosaves.values()) {
+                    try {
+                        closing.get();
+                    } catch (ExecutionException | InterruptedException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+                dispose();
+                System.exit(0);
+            }
+        });
 
         setTitle("Tile Map Editor");
         setSize(1450, 900);
-        setDefaultCloseOperation(EXIT_ON_CLOSE);
+        setDefaultCloseOperation(DO_NOTHING_ON_CLOSE); // see windowClosing
         setLocationRelativeTo(null);
         setVisible(true);
 
         updateEditorPanelSize();
+        startAutosave(autosaveDir(null));
+    }
+
+    // Offers to restore the map of a session that didn't shut down cleanly, then keeps autosaving
+    private void startAutosave(File dir) {
+        try {
+            autosave = Autosave.open(model, dir, SwingUtilities::invokeLater);
+            if (autosave == null) return;
+
+            TileGrid recovered = offeredRecovery.add(dir) ? autosave.recover() : null;
+            if (recovered != null && recovered.getLayerCount() == layerCount
+                    && JOptionPane.showConfirmDialog(this,
+                    "The editor did not shut down cleanly.\nRestore the autosaved map?",
+                    "Autosave", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                model.setGrid(recovered);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Failed to restore the autosaved map: " + e.getMessage());
+        }
+        if (autosave == null) return;
+
+        autosave.start();
+    }
+
+    // The scratch map autosaves to the top folder, every workspace map to one of its own
+    private static File autosaveDir(Workspace.Entry entry) {
+        File dir = new File(System.getProperty("user.home"), ".tilemapeditor" + File.separator + "autosave");
+        if (entry == null) return dir;
+        String id = Integer.toHexString(entry.file.getAbsolutePath().hashCode()) + "-" + entry.name;
+        return new File(dir, "maps" + File.separator + id);
+    }
+
+    // Moves autosaving over to the current model. The old autosave winds down on
+    // its own thread and keeps its journal until the workspace has written that
+    // map back, so a crash meanwhile still recovers it.
+    private void rebindAutosave() {
+        closingAutosaves.values().removeIf(Future::isDone);
+        if (autosave != null) {
+            Future<?> written = autosavedEntry != null ? autosavedEntry.getPendingWrite() : null;
+            closingAutosaves.put(autosave.getDir(), autosave.closeAfter(written));
+            autosave = null;
+        }
+
+        autosavedEntry = workspace != null ? workspace.getActive() : null;
+        if (loadingMap) return; // nothing to autosave in the placeholder
+        File dir = autosaveDir(autosavedEntry);
+        int request = ++autosaveRequest;
+        Future<?> closing = closingAutosaves.get(dir);
+        if (closing == null) {
+            startAutosave(dir);
+            return;
+        }
+        // switched back before this map's last autosave let go of the folder
+        Workers.POOL.execute(() -> {
+            try {
+                closing.get();
+            } catch (ExecutionException | InterruptedException e) {
+                e.printStackTrace();
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (request == autosaveRequest) startAutosave(dir);
+            });
+        });
+    }
+
+    private JPanel createWorkspacePanel() {
+        JButton openWorkspaceBtn = new JButton("Open Workspace");
+        openWorkspaceBtn.addActionListener(e -> openWorkspace());
+        newMapBtn = new JButton("New Map");
+        newMapBtn.setEnabled(false);
+        newMapBtn.addActionListener(e -> newMap());
+
+        mapList = new JList<>(mapListModel);
+        mapList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        mapList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                Workspace.Entry entry = (Workspace.Entry) value;
+                super.getListCellRendererComponent(list, entry.name + (entry.isModified() ? " *" : ""),
+                        index, isSelected, cellHasFocus);
+                // bold maps are resident and open instantly
+                setFont(getFont().deriveFont(entry.isResident() ? Font.BOLD : Font.PLAIN));
+                return this;
+            }
+        });
+        mapList.addListSelectionListener(e -> {
+            Workspace.Entry entry = mapList.getSelectedValue();
+            if (e.getValueIsAdjusting() || updatingMapList || entry == null) return;
+            if (entry != workspace.getActive()) switchMap(entry.name);
+        });
+
+        workspaceStatus = new JLabel(" ");
+        JPanel buttons = new JPanel(new GridLayout(0, 1));
+        buttons.add(openWorkspaceBtn);
+        buttons.add(newMapBtn);
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(buttons, BorderLayout.NORTH);
+        panel.add(new JScrollPane(mapList), BorderLayout.CENTER);
+        panel.add(workspaceStatus, BorderLayout.SOUTH);
+        panel.setPreferredSize(new Dimension(180, 0));
+        return panel;
+    }
+
+    // Lists the maps of a folder; an edited map that isn't in a workspace yet joins it as "untitled"
+    private void openWorkspace() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+
+        boolean keepCurrent = workspace == null && scratchChanged;
+        if (!closeWorkspace()) return;
+        long budget = Math.max(64L << 20, Runtime.getRuntime().maxMemory() / 4);
+        workspace = new Workspace(fileChooser.getSelectedFile(), layerCount, HISTORY_BYTES, budget,
+                SwingUtilities::invokeLater, new Workspace.Listener() {
+            @Override
+            public void workspaceChanged(Workspace w) {
+                refreshMapList();
+            }
+
+            @Override
+            public void writeFailed(Workspace.Entry entry, Exception e) {
+                // the map stays in memory and is written again on the next switch or exit
+                workspaceStatus.setText("Failed to save " + entry.name);
+            }
+        });
+        newMapBtn.setEnabled(true);
+
+        List<Workspace.Entry> entries = workspace.getEntries();
+        if (keepCurrent) {
+            // the autosave running now covers it until the next switch
+            autosavedEntry = workspace.add(uniqueMapName("untitled"), model);
+        } else if (!entries.isEmpty()) {
+            // the old map belongs to no workspace any more, so edits to it would never be written
+            loadingMap = true;
+            setModel(new MapModel(new TileGrid(layerCount, 20, 20), HISTORY_BYTES));
+            switchMap(entries.get(0).name);
+        } else {
+            addNewMap("untitled");
+        }
+        refreshMapList();
+    }
+
+    private void newMap() {
+        String name = JOptionPane.showInputDialog(this, "Map name:", uniqueMapName("map"));
+        if (name == null) return;
+        name = name.trim();
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            JOptionPane.showMessageDialog(this, "Invalid map name: " + name);
+            return;
+        }
+        if (workspace.contains(name)) {
+            JOptionPane.showMessageDialog(this, name + " already exists");
+            return;
+        }
+        addNewMap(name);
+    }
+
+    private void addNewMap(String name) {
+        MapModel created = new MapModel(new TileGrid(layerCount, 20, 20), HISTORY_BYTES);
+        workspace.add(name, created);
+        setModel(created);
+    }
+
+    private String uniqueMapName(String base) {
+        String name = base;
+        for (int i = 2; workspace != null && workspace.contains(name); i++) name = base + "-" + i;
+        return name;
+    }
+
+    // Resident maps switch right away, others are read in the background meanwhile
+    private void switchMap(String name) {
+        workspaceStatus.setText("Loading " + name + "...");
+        workspace.open(name, opened -> {
+            workspaceStatus.setText(" ");
+            loadingMap = false;
+            setModel(opened);
+        }, e -> {
+            e.printStackTrace();
+            workspaceStatus.setText(" ");
+            if (loadingMap) {
+                // the first map of the workspace failed, edit a new one instead of the placeholder
+                loadingMap = false;
+                addNewMap(uniqueMapName("untitled"));
+            }
+            refreshMapList();
+            JOptionPane.showMessageDialog(this, "Failed to open " + name + ": " + e.getMessage());
+        });
+    }
+
+    // Points the view, minimap, collision check and autosave at another map
+    private void setModel(MapModel next) {
+        if (next == model) return;
+        model.endEdit();
+        model.removeListener(viewListener);
+        model = next;
+        cellRenderer.setModel(next);
+        model.addListener(viewListener);
+
+        selection = null;
+        dragStart = null;
+        lastCell = null;
+        spawnCell = null;
+        collisionResult = null;
+        analysisGeneration++;
+        mapChanged(null);
+        rebindAutosave();
+        Workspace.Entry active = workspace != null ? workspace.getActive() : null;
+        setTitle(active != null ? "Tile Map Editor - " + active.name : "Tile Map Editor");
+    }
+
+    private void refreshMapList() {
+        updatingMapList = true;
+        mapListModel.clear();
+        for (Workspace.Entry entry : workspace.getEntries()) mapListModel.addElement(entry);
+        mapList.setSelectedValue(workspace.getActive(), true);
+        updatingMapList = false;
+    }
+
+    // Writes back the workspace's changed maps, e.g. on exit. False if some could not be written.
+    private boolean closeWorkspace() {
+        if (workspace == null) return true;
+        List<String> failed = workspace.close();
+        if (failed.isEmpty()) return true;
+        JOptionPane.showMessageDialog(this, "Failed to save: " + String.join(", ", failed));
+        return false;
+    }
+
+    int scaledTileSize() {
+        return Math.max(1, (int) (tileSize * zoom));
     }
 
     private void updateEditorPanelSize() {
-        editorPanel.setPreferredSize(new Dimension((int)(cols * tileSize * zoom), (int)(rows * tileSize * zoom)));
+        editorPanel.setPreferredSize(new Dimension((int)(model.getCols() * tileSize * zoom), (int)(model.getRows() * tileSize * zoom)));
         editorPanel.revalidate();
         editorPanel.repaint();
     }
 
-    private void initializeMap() {
-        for (int l = 0; l < layerCount; l++) {
-            for (int i = 0; i < rows; i++) {
-                Arrays.fill(mapLayers[l][i], "e0");
+    // Keeps the view in sync with the model, runs on the EDT after every change
+    private void mapChanged(Rectangle dirty) {
+        if (workspace == null) scratchChanged = true;
+        undoBtn.setEnabled(model.canUndo());
+        redoBtn.setEnabled(model.canRedo());
+        if (dirty == null) {
+            // new size or a different map
+            rowSpinner.setValue(model.getRows());
+            colSpinner.setValue(model.getCols());
+            chunkCache.invalidateAll();
+            minimap.rebuild();
+            updateEditorPanelSize();
+            if (collisionCheck.isSelected()) analysisTimer.restart();
+            return;
+        }
+        if (dirty.width * dirty.height <= 64) {
+            for (int r = dirty.y; r < dirty.y + dirty.height; r++) {
+                for (int c = dirty.x; c < dirty.x + dirty.width; c++) {
+                    chunkCache.invalidateCell(r, c);
+                }
             }
+        } else {
+            chunkCache.invalidateRegion(dirty);
         }
+        minimap.update(dirty);
+        repaintCells(dirty);
+        if (collisionCheck.isSelected()) analysisTimer.restart();
+    }
+
+    void undo() {
+        model.undo();
     }
 
-    /*private void initializeTiles() {
-        ArrayList<Tile> tileList = new ArrayList<>();
-        symbolList.clear();
-        spritesheetNames.clear();
-        spritesheetStartIndexes.clear();
+    void redo() {
+        model.redo();
+    }
 
-        int index = 1;
+    // Map cell under the mouse as (col, row), may lie outside the map
+    private Point cellAt(MouseEvent e) {
+        int scaledTileSize = Math.max(1, (int) (tileSize * zoom));
+        return new Point(Math.floorDiv(e.getX(), scaledTileSize), Math.floorDiv(e.getY(), scaledTileSize));
+    }
 
-        try {
-            File tilesDir = new File("src/tiles");
-            File[] imageFiles = tilesDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".png") || name.toLowerCase().endsWith(".jpg"));
+    private boolean insideMap(Point cell) {
+        return cell.y >= 0 && cell.y < model.getRows() && cell.x >= 0 && cell.x < model.getCols();
+    }
 
-            if (imageFiles == null) {
-                JOptionPane.showMessageDialog(this, "No tilesheets found in src/tiles");
-                System.exit(1);
+    // Paints every cell on the line from the previous brush position to the
+    // mouse, so fast drags don't leave gaps between the delivered events
+    private void placeTile(MouseEvent e) {
+        long start = Metrics.start();
+        Point cell = cellAt(e);
+        Point from = lastCell != null ? lastCell : cell;
+        lastCell = cell;
+
+        // Bresenham over cells
+        int dx = Math.abs(cell.x - from.x), dy = -Math.abs(cell.y - from.y);
+        int sx = from.x < cell.x ? 1 : -1, sy = from.y < cell.y ? 1 : -1;
+        int err = dx + dy;
+        int x = from.x, y = from.y;
+        while (true) {
+            if (insideMap(new Point(x, y))) {
+                model.set(currentLayer, y, x, currentTile);
+            }
+            if (x == cell.x && y == cell.y) break;
+            int e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                x += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                y += sy;
             }
+        }
+        Metrics.PLACE_TILE.stop(start);
+    }
 
-            for (File file : imageFiles) {
-                spritesheetNames.add(file.getName());
-                spritesheetStartIndexes.add(tileList.size());
+    // Announces the cells a bulk tool changed, once for the whole area
+    private void applyBulk(Rectangle dirty) {
+        if (dirty != null) model.changed(dirty);
+    }
 
-                BufferedImage sheet = ImageIO.read(file);
+    // Queues cells for repainting. Everything queued within one frame is
+    // repainted as a single rectangle instead of one repaint per mouse event.
+    private void repaintCells(Rectangle cells) {
+        if (cells.isEmpty()) return;
+        pendingRepaint = pendingRepaint == null ? new Rectangle(cells) : pendingRepaint.union(cells);
+        if (!repaintTimer.isRunning()) repaintTimer.start();
+    }
 
-                int sheetCols = sheet.getWidth() / tileSize;
-                int sheetRows = sheet.getHeight() / tileSize;
+    private void flushRepaint() {
+        if (pendingRepaint == null) return;
+        int s = (int) (tileSize * zoom);
+        Rectangle cells = pendingRepaint;
+        pendingRepaint = null;
+        editorPanel.repaint(cells.x * s, cells.y * s, cells.width * s, cells.height * s);
+    }
 
-                for (int y = 0; y < sheetRows; y++) {
-                    for (int x = 0; x < sheetCols; x++) {
-                        BufferedImage sub = sheet.getSubimage(x * tileSize, y * tileSize, tileSize, tileSize);
-                        tileList.add(new Tile(sub));
-                        symbolList.add("t" + index);
-                        index++;
-                    }
-                }
-            }
+    // Rectangle of cells spanned by dragStart and cell, clamped to the map
+    private Rectangle dragRect(Point cell) {
+        int x = Math.max(0, Math.min(dragStart.x, cell.x));
+        int y = Math.max(0, Math.min(dragStart.y, cell.y));
+        int right = Math.min(model.getCols() - 1, Math.max(dragStart.x, cell.x));
+        int bottom = Math.min(model.getRows() - 1, Math.max(dragStart.y, cell.y));
+        return new Rectangle(x, y, right - x + 1, bottom - y + 1);
+    }
 
-            tileSet = tileList.toArray(new Tile[0]);
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Failed to load tilesheets.");
-            System.exit(1);
+    private void setSelection(Rectangle cells) {
+        if (selection != null) repaintCells(selection);
+        selection = cells;
+        if (selection != null) repaintCells(selection);
+    }
+
+    private void toolPressed(MouseEvent e) {
+        if (loadingMap) return;
+        // one stroke, press through release, is one undo step
+        model.beginEdit(TOOL_NAMES[currentTool]);
+        lastCell = null;
+        Point cell = cellAt(e);
+        if (!insideMap(cell)) return;
+
+        switch (currentTool) {
+            case TOOL_BRUSH:
+                placeTile(e);
+                break;
+            case TOOL_RECTANGLE:
+                dragStart = cell;
+                setSelection(dragRect(cell));
+                break;
+            case TOOL_BUCKET:
+                applyBulk(MapTools.floodFill(model.getGrid(), model.getHistory(), currentLayer, cell.y, cell.x, currentTile));
+                break;
+            case TOOL_STAMP:
+                if (SwingUtilities.isRightMouseButton(e)) {
+                    dragStart = cell;
+                    setSelection(dragRect(cell));
+                } else if (stamp != null) {
+                    applyBulk(MapTools.stamp(model.getGrid(), model.getHistory(), currentLayer, cell.y, cell.x, stamp));
+                }
+                break;
+            case TOOL_SPAWN:
+                spawnCell = cell;
+                if (collisionCheck.isSelected()) analysisTimer.restart();
+                editorPanel.repaint();
+                break;
         }
-    }*/
-
-    private void populateTileButtons() {
-        tileButtonsPanel.removeAll();
-
-        int sheetCount = spritesheetNames.size();
-
-        for (int sheetIdx = 0; sheetIdx < sheetCount; sheetIdx++) {
-            // Add header label for this spritesheet
-            String sheetName = spritesheetNames.get(sheetIdx);
-            JLabel header = new JLabel(sheetName);
-            header.setFont(header.getFont().deriveFont(Font.BOLD, 14f));
-            header.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
-            tileButtonsPanel.add(header);
-
-            int startIdx = spritesheetStartIndexes.get(sheetIdx);
-            int endIdx = (sheetIdx + 1 < sheetCount) ? spritesheetStartIndexes.get(sheetIdx + 1) : tileSet.length;
-
-            for (int i = startIdx; i < endIdx; i++) {
-                BufferedImage img = tileSet[i].image;
-                if (isEmptyTile(img)) continue; // skip fully transparent tiles
-
-                Image scaled = img.getScaledInstance(tileSize * 2, tileSize * 2, Image.SCALE_SMOOTH);
-                final String tileCode = symbolList.get(i);
-                JButton btn = new JButton(new ImageIcon(scaled));
-                btn.setPreferredSize(new Dimension(tileSize * 2 + 4, tileSize * 2 + 4));
-                btn.addActionListener(e -> currentTile = tileCode);
-                tileButtonsPanel.add(btn);
+    }
+
+    // Analyzes the collision layer of a snapshot on the worker pool, the result
+    // is shown unless a newer analysis was started in the meantime
+    private void runCollisionAnalysis() {
+        if (!collisionCheck.isSelected() || model.getLayerCount() <= MapFiles.COLLISION_LAYER) return;
+        TileGrid snapshot = model.snapshot();
+        Point spawn = spawnCell;
+        int generation = ++analysisGeneration;
+
+        Workers.POOL.execute(() -> {
+            CollisionAnalysis.Result result = CollisionAnalysis.analyze(snapshot, MapFiles.COLLISION_LAYER, spawn);
+            SwingUtilities.invokeLater(() -> {
+                if (generation != analysisGeneration || !collisionCheck.isSelected()) return;
+                collisionResult = result;
+                String status = result.collisionRects.size() + " collision / " + result.killRects.size()
+                        + " kill rects, " + result.regionCount + " regions";
+                if (result.spawn != null) status += ", " + result.reachableCells + " cells reachable";
+                collisionStatus.setText(status);
+                editorPanel.repaint();
+            });
+        });
+    }
+
+    // Outlines the merged rectangles and darkens walkable cells the spawn can't reach
+    private void paintCollisionOverlay(Graphics2D g2, Rectangle clip, int s) {
+        CollisionAnalysis.Result result = collisionResult;
+        if (result == null || result.rows != model.getRows() || result.cols != model.getCols()) return;
+
+        if (result.spawn != null) {
+            int firstRow = Math.max(0, clip.y / s), lastRow = Math.min(result.rows - 1, (clip.y + clip.height) / s);
+            int firstCol = Math.max(0, clip.x / s), lastCol = Math.min(result.cols - 1, (clip.x + clip.width) / s);
+            g2.setColor(new Color(0, 0, 0, 96));
+            for (int r = firstRow; r <= lastRow; r++) {
+                for (int c = firstCol; c <= lastCol; c++) {
+                    if (result.isWalkable(r, c) && !result.isReachable(r, c)) g2.fillRect(c * s, r * s, s, s);
+                }
             }
+            g2.setColor(Color.GREEN);
+            g2.fillOval(result.spawn.x * s + s / 4, result.spawn.y * s + s / 4, s / 2, s / 2);
         }
 
-        tileButtonsPanel.revalidate();
-        tileButtonsPanel.repaint();
+        g2.setColor(Color.MAGENTA);
+        drawRects(g2, clip, s, result.collisionRects);
+        g2.setColor(Color.RED);
+        drawRects(g2, clip, s, result.killRects);
     }
 
-    private boolean isEmptyTile(BufferedImage img) {
-        int w = img.getWidth();
-        int h = img.getHeight();
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int pixel = img.getRGB(x, y);
-                int alpha = (pixel >> 24) & 0xff;
-                if (alpha != 0) return false;  // non-transparent pixel found
-            }
+    private static void drawRects(Graphics2D g2, Rectangle clip, int s, List<Rectangle> rects) {
+        for (Rectangle rect : rects) {
+            int x = rect.x * s, y = rect.y * s, w = rect.width * s, h = rect.height * s;
+            if (clip.intersects(x, y, w, h)) g2.drawRect(x, y, w - 1, h - 1);
         }
-        return true;  // fully transparent tile
     }
 
-    private void placeTile(MouseEvent e) {
-        JScrollPane scrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, editorPanel);
-        if (scrollPane == null) return;
+    // Percentiles of the frame time and the other editor hot paths, top left of the view
+    private void paintMetricsOverlay(Graphics2D g2) {
+        Rectangle view = editorPanel.getVisibleRect();
+        overlayBounds = new Rectangle(view.x + 8, view.y + 8, OVERLAY_WIDTH, OVERLAY_LINES * OVERLAY_LINE + 10);
+        Metrics.Histogram[] shown = {Metrics.PAINT, Metrics.PAINT_CELLS, Metrics.PAINT_TILES,
+                Metrics.PLACE_TILE, Metrics.PALETTE_LAYOUT};
+
+        g2.setColor(new Color(0, 0, 0, 170));
+        g2.fillRect(overlayBounds.x, overlayBounds.y, overlayBounds.width, overlayBounds.height);
+        g2.setColor(Color.WHITE);
+        g2.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        for (int i = 0; i < shown.length; i++) {
+            Metrics.Histogram h = shown[i];
+            String line = String.format("%-20s p50 %s p90 %s p99 %s max %s", h.name,
+                    overlayValue(h, h.percentile(50)), overlayValue(h, h.percentile(90)),
+                    overlayValue(h, h.percentile(99)), overlayValue(h, h.getMax()));
+            g2.drawString(line, overlayBounds.x + 6, overlayBounds.y + 5 + (i + 1) * OVERLAY_LINE - 3);
+        }
+    }
 
-        Point viewPos = scrollPane.getViewport().getViewPosition();
-        int scaledTileSize = (int) (tileSize * zoom);
+    private static String overlayValue(Metrics.Histogram h, long value) {
+        return h.nanos ? String.format("%6.2fms", value / 1e6) : String.format("%8d", value);
+    }
 
-        int mouseX = e.getX() + viewPos.x;
-        int mouseY = e.getY() + viewPos.y;
+    // Repaints where the overlay was and where it goes now
+    private void repaintOverlay() {
+        if (overlayBounds != null) editorPanel.repaint(overlayBounds);
+        Rectangle view = editorPanel.getVisibleRect();
+        editorPanel.repaint(view.x + 8, view.y + 8, OVERLAY_WIDTH, OVERLAY_LINES * OVERLAY_LINE + 10);
+    }
 
-        int col = mouseX / scaledTileSize;
-        int row = mouseY / scaledTileSize;
+    // Writes every recorded histogram to a text file
+    private void dumpMetrics() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setSelectedFile(new File("metrics.txt"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        try {
+            Metrics.dump(fileChooser.getSelectedFile());
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Failed to write metrics: " + e.getMessage());
+        }
+    }
+
+    private void toolDragged(MouseEvent e) {
+        if (loadingMap) return;
+        Point cell = cellAt(e);
+        if (dragStart != null) {
+            setSelection(dragRect(cell));
+        } else if (currentTool == TOOL_BRUSH) {
+            placeTile(e);
+        } else if (currentTool == TOOL_STAMP && stamp != null && insideMap(cell)) {
+            applyBulk(MapTools.stamp(model.getGrid(), model.getHistory(), currentLayer, cell.y, cell.x, stamp));
+        }
+    }
 
-        if (row >= 0 && row < rows && col >= 0 && col < cols) {
-            mapLayers[currentLayer][row][col] = currentTile;
-            int x = col * scaledTileSize;
-            int y = row * scaledTileSize;
-            editorPanel.repaint(x, y, scaledTileSize, scaledTileSize);
+    private void toolReleased(MouseEvent e) {
+        if (loadingMap) return;
+        if (dragStart != null) {
+            Rectangle area = dragRect(cellAt(e));
+            if (currentTool == TOOL_RECTANGLE) {
+                applyBulk(MapTools.fillRect(model.getGrid(), model.getHistory(), currentLayer, area, currentTile));
+            } else if (currentTool == TOOL_STAMP) {
+                stamp = MapTools.copyStamp(model.getGrid(), currentLayer, area);
+            }
+            dragStart = null;
+            setSelection(null);
         }
+        lastCell = null;
+        model.endEdit();
     }
 
     class EditorPanel extends JPanel {
         public EditorPanel() {
             addMouseListener(new MouseAdapter() {
                 public void mousePressed(MouseEvent e) {
-                    placeTile(e);
+                    toolPressed(e);
+                }
+
+                public void mouseReleased(MouseEvent e) {
+                    toolReleased(e);
                 }
             });
 
             addMouseMotionListener(new MouseMotionAdapter() {
                 public void mouseDragged(MouseEvent e) {
-                    placeTile(e);
+                    toolDragged(e);
                 }
             });
         }
 
         @Override
         public void paintComponent(Graphics g) {
+            long start = Metrics.start();
+            long cells = cellRenderer.getCellsPainted();
+            long drawn = cellRenderer.getTilesDrawn();
+            paintMap(g);
+
+            boolean overlay = metricsCheck != null && metricsCheck.isSelected();
+            Rectangle clip = g.getClipBounds();
+            // the timer's overlay refreshes aren't frames of the map
+            if (start != 0 && !(overlay && overlayBounds != null && clip != null && overlayBounds.contains(clip))) {
+                Metrics.PAINT.stop(start);
+                Metrics.PAINT_CELLS.add(cellRenderer.getCellsPainted() - cells);
+                Metrics.PAINT_TILES.add(cellRenderer.getTilesDrawn() - drawn);
+            }
+            if (overlay) paintMetricsOverlay((Graphics2D) g);
+        }
+
+        private void paintMap(Graphics g) {
             super.paintComponent(g);
             Graphics2D g2 = (Graphics2D) g;
             int scaledTileSize = (int) (tileSize * zoom);
+            if (scaledTileSize <= 0) return;
+
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+
+            // tiles a few pixels wide look the same as their average color and
+            // would cost a draw call per cell per layer
+            boolean detailed = scaledTileSize >= MIN_DETAIL_TILE_SIZE;
+            if (detailed) {
+                chunkCache.paint(g2, clip, scaledTileSize);
+            } else {
+                minimap.paintLevelOfDetail(g2, clip, scaledTileSize);
+            }
 
-            for (int i = 0; i < rows; i++) {
-                for (int j = 0; j < cols; j++) {
-
-                    // Draw all layers bottom to top
-                    for (int l = 0; l < layerCount; l++) {
-                        String symbol = mapLayers[l][i][j];
-                        if (symbol == null || symbol.equals("e0")) continue; // skip empty tiles
-
-                        if (symbol.equals("c0")) {
-                            g2.setColor(magenta);
-                            g2.fillRect(j * scaledTileSize, i * scaledTileSize, scaledTileSize, scaledTileSize);
-                        }
-                        if (symbol.equals("k0")) {
-                            g2.setColor(red);
-                            g2.fillRect(j * scaledTileSize, i * scaledTileSize, scaledTileSize, scaledTileSize);
-                        }
+            if (selection != null) {
+                g2.setColor(new Color(255, 255, 0, 64));
+                g2.fillRect(selection.x * scaledTileSize, selection.y * scaledTileSize,
+                        selection.width * scaledTileSize, selection.height * scaledTileSize);
+            }
 
-                        int tileIndex = symbolList.indexOf(symbol);
-                        if (tileIndex < 0) continue;
+            if (!detailed) return; // grid lines would cover everything
+            paintCollisionOverlay(g2, clip, scaledTileSize);
 
-                        BufferedImage img = tileSet[tileIndex].image;
-                        if (isEmptyTile(img)) continue; // skip fully transparent tiles
+            // Draw grid lines once on top, only for the cells inside the clip
+            int firstRow = Math.max(0, clip.y / scaledTileSize);
+            int firstCol = Math.max(0, clip.x / scaledTileSize);
+            int lastRow = Math.min(model.getRows() - 1, (clip.y + clip.height) / scaledTileSize);
+            int lastCol = Math.min(model.getCols() - 1, (clip.x + clip.width) / scaledTileSize);
+            if (firstRow > lastRow || firstCol > lastCol) return;
 
-                        int x = j * scaledTileSize;
-                        int y = i * scaledTileSize;
-                        g2.drawImage(img, x, y, scaledTileSize, scaledTileSize, null);
-                    }
+            int top = firstRow * scaledTileSize;
+            int left = firstCol * scaledTileSize;
+            int bottom = (lastRow + 1) * scaledTileSize;
+            int right = (lastCol + 1) * scaledTileSize;
 
-                    // Draw grid lines once on top
-                    g2.setColor(Color.BLACK);
-                    g2.drawRect(j * scaledTileSize, i * scaledTileSize, scaledTileSize, scaledTileSize);
-                }
+            g2.setColor(Color.BLACK);
+            for (int i = firstRow; i <= lastRow + 1; i++) {
+                g2.drawLine(left, i * scaledTileSize, right, i * scaledTileSize);
+            }
+            for (int j = firstCol; j <= lastCol + 1; j++) {
+                g2.drawLine(j * scaledTileSize, top, j * scaledTileSize, bottom);
             }
         }
 
         @Override
         public Dimension getPreferredSize() {
             int scaledTileSize = (int) (tileSize * zoom);
-            return new Dimension(cols * scaledTileSize, rows * scaledTileSize);
+            return new Dimension(model.getCols() * scaledTileSize, model.getRows() * scaledTileSize);
         }
     }
 
@@ -371,26 +934,20 @@ public class MapEditor extends JFrame {
         int result = fileChooser.showSaveDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             File dir = fileChooser.getSelectedFile();
-
-            try {
-                for (int l = 0; l < layerCount; l++) {
-                    File file = new File(dir, "map_layer_" + l + ".txt");
-                    try (PrintWriter pw = new PrintWriter(file)) {
-                        for (int i = 0; i < rows; i++) {
-                            pw.println(String.join(" ", mapLayers[l][i]));
-                        }
-                    }
-                }
-                JOptionPane.showMessageDialog(this, "Map layers saved to " + dir.getAbsolutePath());
-            } catch (IOException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Failed to save map layers: " + e.getMessage());
-            }
+            TileGrid snapshot = model.snapshot();
+
+            runTask("Saving map layers", "Failed to save map layers: ",
+                    progress -> {
+                        MapFiles.saveLayers(snapshot, dir, Workers.POOL, progress);
+                        return null;
+                    },
+                    ignored -> JOptionPane.showMessageDialog(this, "Map layers saved to " + dir.getAbsolutePath()));
         }
     }
 
     // Load all layers from files named map_layer_0.txt, map_layer_1.txt, etc.
     public void loadMapWithFileChooser() {
+        if (loadingMap) return;
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Select folder containing map layer files");
         fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
@@ -398,28 +955,76 @@ public class MapEditor extends JFrame {
         if (result == JFileChooser.APPROVE_OPTION) {
             File dir = fileChooser.getSelectedFile();
 
-            try {
-                for (int l = 0; l < layerCount; l++) {
-                    File file = new File(dir, "map_layer_" + l + ".txt");
-                    if (!file.exists()) {
-                        JOptionPane.showMessageDialog(this, "Missing layer file: " + file.getName());
-                        return;
-                    }
+            runTask("Loading map layers", "Failed to load map layers: ",
+                    progress -> MapFiles.loadLayers(dir, layerCount, Workers.POOL, progress),
+                    loaded -> {
+                        int missingTiles = 0;
+                        int[] row = new int[loaded.getCols()];
+                        for (int l = 0; l < layerCount; l++) {
+                            for (int r = 0; r < loaded.getRows(); r++) {
+                                loaded.getRow(l, r, row, 0);
+                                for (int id : row) {
+                                    if (id >= TileGrid.FIRST_TILE && tiles.get(id) == null) missingTiles++;
+                                }
+                            }
+                        }
+                        model.setGrid(loaded);
 
-                    try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                        for (int i = 0; i < rows; i++) {
-                            String line = br.readLine();
-                            if (line == null) break;
-                            mapLayers[l][i] = line.split(" ");
+                        String message = "Map layers loaded from " + dir.getAbsolutePath();
+                        if (missingTiles > 0) {
+                            message += "\n" + missingTiles + " cells use tiles that are not imported yet.";
                         }
-                    }
-                }
-                editorPanel.repaint();
-                JOptionPane.showMessageDialog(this, "Map layers loaded from " + dir.getAbsolutePath());
-            } catch (IOException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Failed to load map layers: " + e.getMessage());
+                        JOptionPane.showMessageDialog(this, message);
+                    });
+        }
+    }
+
+    // Save all layers to a single binary map file
+    public void saveBinaryMapWithFileChooser() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save map file");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Map Files", BinaryMapFormat.EXTENSION));
+        JCheckBox compress = new JCheckBox("Compress");
+        fileChooser.setAccessory(compress);
+        int result = fileChooser.showSaveDialog(this);
+        if (result == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            if (!file.getName().toLowerCase().endsWith("." + BinaryMapFormat.EXTENSION)) {
+                file = new File(file.getParentFile(), file.getName() + "." + BinaryMapFormat.EXTENSION);
             }
+
+            File target = file;
+            TileGrid snapshot = model.snapshot();
+            boolean compressed = compress.isSelected();
+
+            runTask("Saving map", "Failed to save map: ",
+                    progress -> {
+                        BinaryMapFormat.write(snapshot, target, compressed);
+                        return null;
+                    },
+                    ignored -> JOptionPane.showMessageDialog(this, "Map saved to " + target.getAbsolutePath()));
+        }
+    }
+
+    // Load all layers from a single binary map file
+    public void loadBinaryMapWithFileChooser() {
+        if (loadingMap) return;
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Open map file");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Map Files", BinaryMapFormat.EXTENSION));
+        int result = fileChooser.showOpenDialog(this);
+        if (result == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+
+            runTask("Loading map", "Failed to load map: ",
+                    progress -> BinaryMapFormat.read(file),
+                    loaded -> {
+                        if (loaded.getLayerCount() != layerCount) {
+                            JOptionPane.showMessageDialog(this, "Map has " + loaded.getLayerCount() + " layers, expected " + layerCount);
+                            return;
+                        }
+                        model.setGrid(loaded);
+                    });
         }
     }
 
@@ -427,58 +1032,78 @@ public class MapEditor extends JFrame {
     public void exportMapAndTiles() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        JCheckBox changedOnly = new JCheckBox("Only changed files", true);
+        JCheckBox usedTilesOnly = new JCheckBox("Only tiles used by the map");
+        JCheckBox packAtlas = new JCheckBox("Pack tiles into atlas pages");
+        JPanel options = new JPanel(new GridLayout(0, 1));
+        options.add(changedOnly);
+        options.add(usedTilesOnly);
+        options.add(packAtlas);
+        fileChooser.setAccessory(options);
         int result = fileChooser.showSaveDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
 
 
             File exportDir = fileChooser.getSelectedFile();
+            TileGrid snapshot = model.snapshot();
+            Tile[] tileSnapshot = tiles.toArray();
+            int[] canonical = tiles.canonicalIndexes();
+            boolean incremental = changedOnly.isSelected();
+            boolean referencedOnly = usedTilesOnly.isSelected();
+            boolean atlas = packAtlas.isSelected();
+
+            runTask("Exporting map and tiles", "Export failed: ",
+                    progress -> MapFiles.export(snapshot, tileSnapshot, canonical, exportDir, incremental, referencedOnly,
+                            atlas, Workers.POOL, progress),
+                    written -> JOptionPane.showMessageDialog(this,
+                            "Export complete! " + written + " files written.\nMap layers and tiles saved to:\n"
+                                    + exportDir.getAbsolutePath()));
+        }
+    }
 
-            // Save each layer as separate text file
-            try {
-                for (int l = 0; l < layerCount; l++) {
-                    if (l == 2) {
-                        File mapFile = new File(exportDir, "COLLISION.txt");
-                        try (PrintWriter pw = new PrintWriter(mapFile)) {
-                            for (int i = 0; i < rows; i++) {
-                                pw.println(String.join(" ", mapLayers[l][i]));
-                            }
-                        }
-                    } else {
-                        File mapFile = new File(exportDir, "map_layer_" + l + ".txt");
-                        try (PrintWriter pw = new PrintWriter(mapFile)) {
-                            for (int i = 0; i < rows; i++) {
-                                pw.println(String.join(" ", mapLayers[l][i]));
-                            }
-                        }
-                    }
-
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Failed to save map files: " + e.getMessage());
-                return;
-            }
+    interface BackgroundWork<T> {
+        T run(TaskProgress progress) throws Exception;
+    }
 
-            // Save tile images
-            for (int i = 0; i < tileSet.length; i++) {
-                String tileCode = symbolList.get(i);
-                BufferedImage img = tileSet[i].image;
+    // Runs work on a background thread behind a cancellable progress dialog,
+    // onSuccess and any error message run on the EDT afterwards
+    private <T> void runTask(String title, String failMessage, BackgroundWork<T> work, Consumer<T> onSuccess) {
+        TaskProgress progress = new TaskProgress();
+        ProgressMonitor monitor = new ProgressMonitor(this, title, null, 0, 1);
+        monitor.setMillisToDecideToPopup(200);
+
+        Timer poll = new Timer(100, e -> {
+            if (monitor.isCanceled()) progress.cancel();
+            monitor.setMaximum(Math.max(1, progress.getTotal()));
+            monitor.setProgress(progress.getDone());
+        });
 
-                if (isEmptyTile(img)) continue;
+        new SwingWorker<T, Void>() {
+            @Override
+            protected T doInBackground() throws Exception {
+                return work.run(progress);
+            }
 
-                File tileFile = new File(exportDir, tileCode + ".png");
+            @Override
+            protected void done() {
+                poll.stop();
+                monitor.close();
                 try {
-                    ImageIO.write(img, "png", tileFile);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    JOptionPane.showMessageDialog(this, "Failed to save tile " + tileCode + ": " + e.getMessage());
-                    return;
+                    onSuccess.accept(get());
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof CancellationException) {
+                        JOptionPane.showMessageDialog(MapEditor.this, title + " canceled.");
+                    } else {
+                        cause.printStackTrace();
+                        JOptionPane.showMessageDialog(MapEditor.this, failMessage + cause.getMessage());
+                    }
+                } catch (InterruptedException | CancellationException ex) {
+                    JOptionPane.showMessageDialog(MapEditor.this, title + " canceled.");
                 }
             }
-
-            JOptionPane.showMessageDialog(this, "Export complete!\nMap layers and tiles saved to:\n" + exportDir.getAbsolutePath());
-
-        }
+        }.execute();
+        poll.start();
     }
 
     private BufferedImage createTransparentTile() {
@@ -499,37 +1124,74 @@ public class MapEditor extends JFrame {
         if (result != JFileChooser.APPROVE_OPTION) return;
 
         File[] selectedFiles = fileChooser.getSelectedFiles();
-
-        ArrayList<Tile> tileList = (tileSet != null)
-                ? new ArrayList<>(Arrays.asList(tileSet))
-                : new ArrayList<>();
-        int index = symbolList.size();
-
-        for (File file : selectedFiles) {
-            try {
-                spritesheetNames.add(file.getName());
-                spritesheetStartIndexes.add(tileList.size());
-
-                BufferedImage sheet = ImageIO.read(file);
-                int sheetCols = sheet.getWidth() / tileSize;
-                int sheetRows = sheet.getHeight() / tileSize;
-
-                for (int y = 0; y < sheetRows; y++) {
-                    for (int x = 0; x < sheetCols; x++) {
-                        BufferedImage sub = sheet.getSubimage(x * tileSize, y * tileSize, tileSize, tileSize);
-                        tileList.add(new Tile(sub));
-                        symbolList.add("t" + index++);
+        importTilesheetBtn.setEnabled(false);
+
+        ProgressMonitor progress = new ProgressMonitor(this, "Importing tilesheets", null, 0, selectedFiles.length);
+        progress.setMillisToDecideToPopup(200);
+
+        // Sheets are decoded in parallel, but published to the registry in file order
+        // so the tile symbols don't depend on which sheet finishes first
+        new SwingWorker<Void, TilesheetImporter.Sheet>() {
+            final AtomicInteger done = new AtomicInteger();
+            final ArrayList<String> failed = new ArrayList<>();
+
+            @Override
+            protected Void doInBackground() {
+                List<Future<TilesheetImporter.Sheet>> futures = TilesheetImporter.submit(
+                        selectedFiles, tileSize, Workers.POOL, done::incrementAndGet);
+
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        // poll, so Cancel stops the import while a large sheet is still decoding
+                        TilesheetImporter.Sheet sheet = null;
+                        while (sheet == null && !progress.isCanceled()) {
+                            try {
+                                sheet = futures.get(i).get(IMPORT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                            } catch (TimeoutException ex) {
+                                // check for cancel again
+                            }
+                        }
+                        if (sheet == null) {
+                            futures.forEach(f -> f.cancel(true));
+                            break;
+                        }
+                        publish(sheet);
+                    } catch (ExecutionException ex) {
+                        ex.getCause().printStackTrace();
+                        synchronized (failed) {
+                            failed.add(selectedFiles[i].getName());
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
                     }
                 }
+                return null;
+            }
 
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Failed to import: " + file.getName());
+            @Override
+            protected void process(List<TilesheetImporter.Sheet> sheets) {
+                for (TilesheetImporter.Sheet sheet : sheets) {
+                    tiles.addSheet(sheet.name, sheet.tiles);
+                    palette.addSheet(tiles.getSheetCount() - 1);
+                }
+                progress.setProgress(done.get());
             }
-        }
 
-        tileSet = tileList.toArray(new Tile[0]);
-        populateTileButtons();
+            @Override
+            protected void done() {
+                progress.close();
+                importTilesheetBtn.setEnabled(true);
+                chunkCache.invalidateAll();
+                minimap.rebuild();
+                editorPanel.repaint();
+                synchronized (failed) {
+                    if (!failed.isEmpty()) {
+                        JOptionPane.showMessageDialog(MapEditor.this, "Failed to import: " + String.join(", ", failed));
+                    }
+                }
+            }
+        }.execute();
     }
 
 
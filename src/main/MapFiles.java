@@ -0,0 +1,393 @@
+package main;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Saves, loads and exports maps with every layer file and tile image handled as
+ * its own task on a worker pool.
+ * <p>
+ * Writes go to a staging folder first and are only renamed into place once
+ * every file was written, so a failure or cancel while writing leaves the
+ * target folder as it was. The renames themselves are atomic per file only: if
+ * one fails partway, the folder holds a mix of old and new files. The export
+ * manifest is renamed last, so it never claims a file is current before it is
+ * and the next incremental export rewrites whatever is left over. Callers pass
+ * a grid and tile array nobody else modifies while the task runs.
+ */
+public class MapFiles {
+    static final String STAGING_DIR = ".staging";
+    static final String MANIFEST = "export.manifest";
+    public static final int COLLISION_LAYER = 2;
+
+    /** Name of a layer file in an export, the game reads layer 2 as COLLISION.txt. */
+    public static String exportLayerName(int layer) {
+        return layer == COLLISION_LAYER ? "COLLISION.txt" : layerName(layer);
+    }
+
+    /** Name of a layer file in a saved map folder. */
+    public static String layerName(int layer) {
+        return "map_layer_" + layer + ".txt";
+    }
+
+    /** Writes map_layer_N.txt for every layer. */
+    public static void saveLayers(TileGrid grid, File dir, ExecutorService pool, TaskProgress progress)
+            throws IOException, InterruptedException {
+        long start = Metrics.start();
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (int l = 0; l < grid.getLayerCount(); l++) {
+            int layer = l;
+            tasks.add(() -> {
+                String name = layerName(layer);
+                TextMapFormat.write(grid, layer, new File(new File(dir, STAGING_DIR), name));
+                return name;
+            });
+        }
+        writeStaged(dir, tasks, pool, progress);
+        Metrics.SAVE_TEXT.stop(start);
+    }
+
+    /** Reads map_layer_0.txt .. map_layer_{layerCount-1}.txt in parallel and checks they have the same size. */
+    public static TileGrid loadLayers(File dir, int layerCount, ExecutorService pool, TaskProgress progress)
+            throws IOException, InterruptedException {
+        long start = Metrics.start();
+        progress.setTotal(layerCount);
+        List<Future<TextMapFormat.Layer>> futures = new ArrayList<>();
+        for (int l = 0; l < layerCount; l++) {
+            File file = new File(dir, layerName(l));
+            if (!file.exists()) throw new IOException("Missing layer file: " + file.getName());
+            futures.add(pool.submit(() -> {
+                progress.checkCanceled();
+                TextMapFormat.Layer layer = TextMapFormat.read(file);
+                progress.step();
+                return layer;
+            }));
+        }
+
+        TextMapFormat.Layer[] layers = new TextMapFormat.Layer[layerCount];
+        for (int l = 0; l < layerCount; l++) {
+            layers[l] = await(futures, l);
+        }
+
+        // the map size comes from the files, every layer has to agree on it
+        TileGrid grid = new TileGrid(layerCount, layers[0].rows, layers[0].cols);
+        for (int l = 0; l < layerCount; l++) {
+            if (layers[l].rows != layers[0].rows || layers[l].cols != layers[0].cols) {
+                throw new IOException(layerName(l) + " is " + layers[l].cols + "x" + layers[l].rows
+                        + ", expected " + layers[0].cols + "x" + layers[0].rows);
+            }
+            for (int r = 0; r < layers[l].rows; r++) {
+                grid.setRow(l, r, layers[l].ids, r * layers[l].cols);
+            }
+        }
+        Metrics.LOAD_TEXT.stop(start);
+        return grid;
+    }
+
+    /**
+     * Writes the game's layer files, the merged collision rectangles (see
+     * {@link CollisionAnalysis#writeRects}) and one PNG per non-empty tile, tiles[i] being "ti".
+     * <p>
+     * canonical is the alias table of the registry (see {@link TileRegistry#canonicalIndexes}),
+     * or null: aliases are written as their canonical tile's symbol and get no PNG of their own.
+     * With packAtlas the tiles are packed into a few {@link TileAtlas} pages plus
+     * {@value TileAtlas#INDEX} instead.
+     * <p>
+     * Every export records a content hash per file in {@value #MANIFEST}. When
+     * incremental, files whose hash matches the manifest and that still exist
+     * are not rewritten. With referencedOnly only tiles used somewhere in the
+     * map are exported. Files from the previous export that are no longer part
+     * of this one are deleted. Returns the number of files written.
+     */
+    public static int export(TileGrid grid, Tile[] tiles, int[] canonical, File exportDir, boolean incremental,
+                             boolean referencedOnly, boolean packAtlas, ExecutorService pool, TaskProgress progress)
+            throws IOException, InterruptedException {
+        long start = Metrics.start();
+        if (canonical != null) grid = canonicalize(grid, canonical);
+        TileGrid exported = grid;
+        File staging = new File(exportDir, STAGING_DIR);
+        Map<String, Long> previous = readManifest(exportDir);
+        Map<String, Long> current = new LinkedHashMap<>();
+        List<Callable<String>> tasks = new ArrayList<>();
+
+        for (int l = 0; l < grid.getLayerCount(); l++) {
+            int layer = l;
+            String name = exportLayerName(layer);
+            long hash = layerHash(grid, layer);
+            current.put(name, hash);
+            if (incremental && unchanged(exportDir, name, hash, previous)) continue;
+            tasks.add(() -> {
+                TextMapFormat.write(exported, layer, new File(staging, name));
+                return name;
+            });
+        }
+
+        // merged collision and kill rectangles next to COLLISION.txt, same content hash
+        if (grid.getLayerCount() > COLLISION_LAYER) {
+            long hash = current.get(exportLayerName(COLLISION_LAYER));
+            current.put(CollisionAnalysis.RECTS_FILE, hash);
+            if (!incremental || !unchanged(exportDir, CollisionAnalysis.RECTS_FILE, hash, previous)) {
+                tasks.add(() -> {
+                    CollisionAnalysis.Result result = CollisionAnalysis.analyze(exported, COLLISION_LAYER, null);
+                    CollisionAnalysis.writeRects(result, new File(staging, CollisionAnalysis.RECTS_FILE));
+                    return CollisionAnalysis.RECTS_FILE;
+                });
+            }
+        }
+
+        boolean[] used = referencedOnly ? usedTiles(grid, tiles.length) : null;
+        int[] exportedTiles = new int[tiles.length];
+        int exportedCount = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i].isEmpty() || (used != null && !used[i]) || (canonical != null && canonical[i] != i)) continue;
+            exportedTiles[exportedCount++] = i;
+        }
+
+        if (packAtlas) {
+            // one task per page, each renders and encodes its own image
+            TileAtlas atlas = new TileAtlas(tiles, Arrays.copyOf(exportedTiles, exportedCount));
+            for (int p = 0; p < atlas.getPageCount(); p++) {
+                int page = p;
+                String name = TileAtlas.pageName(page);
+                long hash = atlas.pageHash(page);
+                current.put(name, hash);
+                if (incremental && unchanged(exportDir, name, hash, previous)) continue;
+                tasks.add(() -> {
+                    atlas.writePage(page, new File(staging, name));
+                    return name;
+                });
+            }
+            long hash = atlas.indexHash();
+            current.put(TileAtlas.INDEX, hash);
+            if (!incremental || !unchanged(exportDir, TileAtlas.INDEX, hash, previous)) {
+                tasks.add(() -> {
+                    atlas.writeIndex(new File(staging, TileAtlas.INDEX));
+                    return TileAtlas.INDEX;
+                });
+            }
+        } else {
+            for (int n = 0; n < exportedCount; n++) {
+                int i = exportedTiles[n];
+                Tile tile = tiles[i];
+                String name = TileRegistry.symbolOf(i) + ".png";
+                long hash = tile.contentHash; // of the imported pixels, whatever image type draws them
+                current.put(name, hash);
+                if (incremental && unchanged(exportDir, name, hash, previous)) continue;
+                tasks.add(() -> {
+                    if (!ImageIO.write(tile.toArgbImage(), "png", new File(staging, name))) {
+                        throw new IOException("No PNG writer available");
+                    }
+                    return name;
+                });
+            }
+        }
+
+        int written = tasks.size();
+        tasks.add(() -> {
+            writeManifest(new File(staging, MANIFEST), current);
+            return MANIFEST;
+        });
+        writeStaged(exportDir, tasks, pool, progress);
+
+        // files of the last export that aren't part of this one any more
+        for (String name : previous.keySet()) {
+            if (!current.containsKey(name)) Files.deleteIfExists(new File(exportDir, name).toPath());
+        }
+        Metrics.EXPORT.stop(start);
+        return written;
+    }
+
+    private static boolean unchanged(File dir, String name, long hash, Map<String, Long> previous) {
+        Long old = previous.get(name);
+        return old != null && old == hash && new File(dir, name).isFile();
+    }
+
+    // chained row hashes of one layer, seeded with the map size
+    private static long layerHash(TileGrid grid, int layer) {
+        int[] row = new int[grid.getCols()];
+        long hash = (long) grid.getRows() << 32 | grid.getCols();
+        for (int r = 0; r < grid.getRows(); r++) {
+            grid.getRow(layer, r, row, 0);
+            hash = ContentHash.of(row, 0, row.length, hash);
+        }
+        return hash;
+    }
+
+    // Rewrites ids of alias tiles to their canonical tile, on a copy of the grid
+    private static TileGrid canonicalize(TileGrid grid, int[] canonical) {
+        boolean anyAlias = false;
+        for (int i = 0; i < canonical.length && !anyAlias; i++) {
+            anyAlias = canonical[i] != i;
+        }
+        if (!anyAlias) return grid;
+
+        TileGrid copy = grid.copy();
+        int[] row = new int[grid.getCols()];
+        for (int l = 0; l < grid.getLayerCount(); l++) {
+            for (int r = 0; r < grid.getRows(); r++) {
+                grid.getRow(l, r, row, 0);
+                boolean changed = false;
+                for (int c = 0; c < row.length; c++) {
+                    int index = row[c] - TileGrid.FIRST_TILE;
+                    if (index >= 0 && index < canonical.length && canonical[index] != index) {
+                        row[c] = TileRegistry.idOf(canonical[index]);
+                        changed = true;
+                    }
+                }
+                if (changed) copy.setRow(l, r, row, 0);
+            }
+        }
+        return copy;
+    }
+
+    // used[i] is true if tile "ti" appears on any layer
+    private static boolean[] usedTiles(TileGrid grid, int tileCount) {
+        boolean[] used = new boolean[tileCount];
+        int[] row = new int[grid.getCols()];
+        for (int l = 0; l < grid.getLayerCount(); l++) {
+            for (int r = 0; r < grid.getRows(); r++) {
+                grid.getRow(l, r, row, 0);
+                for (int id : row) {
+                    int index = id - TileGrid.FIRST_TILE;
+                    if (index >= 0 && index < tileCount) used[index] = true;
+                }
+            }
+        }
+        return used;
+    }
+
+    private static Map<String, Long> readManifest(File dir) throws IOException {
+        Map<String, Long> manifest = new HashMap<>();
+        File file = new File(dir, MANIFEST);
+        if (!file.isFile()) return manifest;
+
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            int space = line.lastIndexOf(' ');
+            if (space <= 0) continue;
+            try {
+                manifest.put(line.substring(0, space), Long.parseUnsignedLong(line.substring(space + 1), 16));
+            } catch (NumberFormatException e) {
+                // damaged entry, the file just gets written again
+            }
+        }
+        return manifest;
+    }
+
+    private static void writeManifest(File file, Map<String, Long> hashes) throws IOException {
+        StringBuilder sb = new StringBuilder("# file content-hash, written by export\n");
+        for (Map.Entry<String, Long> entry : hashes.entrySet()) {
+            sb.append(entry.getKey()).append(' ').append(Long.toHexString(entry.getValue())).append('\n');
+        }
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Runs tasks that each write one file into dir/.staging and return its name,
+    // then moves all of them into dir. Any failure or cancel drops the staging folder.
+    private static void writeStaged(File dir, List<Callable<String>> tasks, ExecutorService pool, TaskProgress progress)
+            throws IOException, InterruptedException {
+        Path staging = new File(dir, STAGING_DIR).toPath();
+        deleteRecursively(staging);
+        Files.createDirectories(staging);
+        progress.setTotal(tasks.size());
+
+        try {
+            // after the first failure the remaining tasks skip their work, but every
+            // task is waited for so none is still writing when staging is deleted
+            AtomicBoolean failed = new AtomicBoolean();
+            List<Future<String>> futures = new ArrayList<>(tasks.size());
+            for (Callable<String> task : tasks) {
+                futures.add(pool.submit(() -> {
+                    if (failed.get()) throw new CancellationException();
+                    progress.checkCanceled();
+                    String name = task.call();
+                    progress.step();
+                    return name;
+                }));
+            }
+
+            List<String> written = new ArrayList<>(tasks.size());
+            Throwable error = null;
+            for (Future<String> future : futures) {
+                try {
+                    written.add(future.get());
+                } catch (ExecutionException e) {
+                    failed.set(true);
+                    if (error == null) error = e.getCause();
+                }
+            }
+            if (error != null) rethrow(error);
+
+            progress.checkCanceled();
+            // the manifest last, it describes the files moved before it
+            written.sort(Comparator.comparing(MANIFEST::equals));
+            for (String name : written) {
+                move(staging.resolve(name), dir.toPath().resolve(name));
+            }
+        } finally {
+            deleteRecursively(staging);
+        }
+    }
+
+    // Waits for one future, on failure the remaining ones are canceled and the cause rethrown
+    private static <T> T await(List<Future<T>> futures, int index) throws IOException, InterruptedException {
+        try {
+            return futures.get(index).get();
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            rethrow(e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+    }
+
+    private static void rethrow(Throwable cause) throws IOException {
+        if (cause instanceof IOException) throw (IOException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new IOException(cause);
+    }
+
+    static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Forces a file's contents to disk. */
+    static void sync(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /** Forces the entries of a directory to disk, so renames into it survive a crash. */
+    static void syncDirectory(Path dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory, Windows makes renames durable itself
+        }
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package main;
+
+import java.awt.Rectangle;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The map being edited: its {@link TileGrid} and undo history, independent of
+ * any Swing component.
+ * <p>
+ * Concurrency contract: a model has a single writer thread, in the editor the
+ * EDT. Only that thread calls the mutating methods, {@link #getGrid} and
+ * {@link #snapshot}. Other threads (saving, export, autosave, analysis) never
+ * touch the live grid; they work on a snapshot taken by the writer, which is a
+ * copy-on-write {@link TileGrid#copy} costing one reference per chunk, so the
+ * writer is not blocked and readers need no locks.
+ * <p>
+ * Every change is announced to the listeners on the writer thread with the
+ * rectangle of cells that changed, or null when the map size or the whole
+ * map changed.
+ */
+public class MapModel {
+
+    public interface Listener {
+        /** Called after cells in dirty (in cells, x = column) changed, dirty is null for the whole map. */
+        void mapChanged(MapModel model, Rectangle dirty);
+    }
+
+    private TileGrid grid;
+    private final EditHistory history;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public MapModel(TileGrid grid, long historyBytes) {
+        this.grid = grid;
+        this.history = new EditHistory(historyBytes);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** The live grid, writer thread only. Bulk edits on it must be followed by {@link #changed}. */
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    public EditHistory getHistory() {
+        return history;
+    }
+
+    /** Copy-on-write copy of the current map that any thread may read. */
+    public TileGrid snapshot() {
+        return grid.copy();
+    }
+
+    /** Approximate heap used by the map and its undo history. */
+    public long getMemoryBytes() {
+        return grid.getMemoryBytes() + history.getMemoryBytes();
+    }
+
+    public int getRows() {
+        return grid.getRows();
+    }
+
+    public int getCols() {
+        return grid.getCols();
+    }
+
+    public int getLayerCount() {
+        return grid.getLayerCount();
+    }
+
+    public int get(int layer, int row, int col) {
+        return grid.get(layer, row, col);
+    }
+
+    /** Writes one cell and records it in the edit in progress. */
+    public void set(int layer, int row, int col, int id) {
+        int old = grid.get(layer, row, col);
+        if (old == id) return;
+        grid.set(layer, row, col, id);
+        history.record(layer, row, col, old, id);
+        fire(new Rectangle(col, row, 1, 1));
+    }
+
+    /** Announces cells changed directly on {@link #getGrid}, e.g. by {@link MapTools}. */
+    public void changed(Rectangle dirty) {
+        if (dirty != null && dirty.isEmpty()) return;
+        fire(dirty);
+    }
+
+    public void beginEdit(String name) {
+        history.beginEdit(name);
+    }
+
+    public void endEdit() {
+        history.endEdit();
+    }
+
+    /**
+     * Changes the map size as one undo step. Cells cut off by shrinking are
+     * recorded so undo can bring them back.
+     */
+    public void resize(int newRows, int newCols) {
+        int rows = grid.getRows(), cols = grid.getCols();
+        if (newRows == rows && newCols == cols) return;
+
+        history.beginEdit("Resize Map");
+        int[] row = new int[cols];
+        for (int l = 0; l < grid.getLayerCount(); l++) {
+            for (int r = 0; r < rows; r++) {
+                if (r < newRows && newCols >= cols) continue;
+                grid.getRow(l, r, row, 0);
+                for (int c = r < newRows ? newCols : 0; c < cols; c++) {
+                    history.recordDistinct(l, r, c, row[c], TileGrid.EMPTY);
+                }
+            }
+        }
+        history.recordResize(rows, cols, newRows, newCols);
+        history.endEdit();
+
+        grid.resize(newRows, newCols);
+        fire(null);
+    }
+
+    /** Empties every layer from firstLayer up as one undo step. */
+    public void clearLayers(int firstLayer, String editName) {
+        history.beginEdit(editName);
+        int[] row = new int[grid.getCols()];
+        for (int l = firstLayer; l < grid.getLayerCount(); l++) {
+            for (int r = 0; r < grid.getRows(); r++) {
+                grid.getRow(l, r, row, 0);
+                for (int c = 0; c < row.length; c++) {
+                    history.recordDistinct(l, r, c, row[c], TileGrid.EMPTY);
+                }
+            }
+            grid.fill(l, TileGrid.EMPTY);
+        }
+        history.endEdit();
+        fire(null);
+    }
+
+    /** Replaces the whole map, e.g. after loading, and forgets the undo history. */
+    public void setGrid(TileGrid newGrid) {
+        grid = newGrid;
+        history.clear();
+        fire(null);
+    }
+
+    public boolean canUndo() {
+        return history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return history.canRedo();
+    }
+
+    public boolean undo() {
+        return applied(history.undo(grid));
+    }
+
+    public boolean redo() {
+        return applied(history.redo(grid));
+    }
+
+    private boolean applied(EditHistory.Edit edit) {
+        if (edit == null) return false;
+        if (edit.isResize() || edit.getCellCount() == 0) {
+            fire(null);
+            return true;
+        }
+        int minRow = Integer.MAX_VALUE, minCol = Integer.MAX_VALUE, maxRow = -1, maxCol = -1;
+        for (int i = 0; i < edit.getCellCount(); i++) {
+            minRow = Math.min(minRow, edit.row(i));
+            maxRow = Math.max(maxRow, edit.row(i));
+            minCol = Math.min(minCol, edit.col(i));
+            maxCol = Math.max(maxCol, edit.col(i));
+        }
+        fire(new Rectangle(minCol, minRow, maxCol - minCol + 1, maxRow - minRow + 1));
+        return true;
+    }
+
+    private void fire(Rectangle dirty) {
+        for (Listener listener : listeners) {
+            listener.mapChanged(this, dirty);
+        }
+    }
+}
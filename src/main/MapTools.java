@@ -0,0 +1,144 @@
+package main;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Editing tools that change many cells of one layer at once: rectangle fill,
+ * bucket (flood) fill and stamps.
+ * <p>
+ * Every tool writes the grid directly, records its changes in the edit in
+ * progress of the history and returns the bounds of the changed cells, or null
+ * if nothing changed, so the caller can invalidate and repaint that region once.
+ */
+public class MapTools {
+
+    /** A rectangular block of tile ids copied from the map, EMPTY cells are not painted. */
+    public static class Stamp {
+        public final int rows, cols;
+        final int[] ids; // row * cols + col
+
+        Stamp(int rows, int cols, int[] ids) {
+            this.rows = rows;
+            this.cols = cols;
+            this.ids = ids;
+        }
+    }
+
+    /** Sets every cell of the rectangle (in cells) to id. */
+    public static Rectangle fillRect(TileGrid grid, EditHistory history, int layer, Rectangle cells, int id) {
+        Rectangle area = cells.intersection(new Rectangle(0, 0, grid.getCols(), grid.getRows()));
+        if (area.isEmpty()) return null;
+
+        int[] row = new int[grid.getCols()];
+        Rectangle dirty = null;
+        for (int r = area.y; r < area.y + area.height; r++) {
+            grid.getRow(layer, r, row, 0);
+            boolean changed = false;
+            for (int c = area.x; c < area.x + area.width; c++) {
+                if (row[c] == id) continue;
+                history.recordDistinct(layer, r, c, row[c], id);
+                row[c] = id;
+                changed = true;
+            }
+            if (!changed) continue;
+            grid.setRow(layer, r, row, 0);
+            dirty = union(dirty, new Rectangle(area.x, r, area.width, 1));
+        }
+        return dirty;
+    }
+
+    /**
+     * Replaces the 4-connected area of cells sharing the id at (row, col) with id.
+     * Scanline fill with an explicit stack, so the map size doesn't limit it.
+     */
+    public static Rectangle floodFill(TileGrid grid, EditHistory history, int layer, int row, int col, int id) {
+        int rows = grid.getRows();
+        int cols = grid.getCols();
+        if (row < 0 || row >= rows || col < 0 || col >= cols) return null;
+        int target = grid.get(layer, row, col);
+        if (target == id) return null;
+
+        int minRow = row, maxRow = row, minCol = col, maxCol = col;
+        int[] stack = new int[64]; // (row, col) pairs
+        int size = 0;
+        stack[size++] = row;
+        stack[size++] = col;
+
+        while (size > 0) {
+            int c = stack[--size];
+            int r = stack[--size];
+            if (grid.get(layer, r, c) != target) continue; // filled by an earlier span
+
+            // widen to the whole run of target cells on this row
+            int left = c, right = c;
+            while (left > 0 && grid.get(layer, r, left - 1) == target) left--;
+            while (right < cols - 1 && grid.get(layer, r, right + 1) == target) right++;
+
+            for (int x = left; x <= right; x++) {
+                grid.set(layer, r, x, id);
+                history.recordDistinct(layer, r, x, target, id);
+            }
+            minRow = Math.min(minRow, r);
+            maxRow = Math.max(maxRow, r);
+            minCol = Math.min(minCol, left);
+            maxCol = Math.max(maxCol, right);
+
+            // seed one cell per run of target cells directly above and below
+            for (int nr = r - 1; nr <= r + 1; nr += 2) {
+                if (nr < 0 || nr >= rows) continue;
+                boolean inRun = false;
+                for (int x = left; x <= right; x++) {
+                    boolean matches = grid.get(layer, nr, x) == target;
+                    if (matches && !inRun) {
+                        if (size + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                        stack[size++] = nr;
+                        stack[size++] = x;
+                    }
+                    inRun = matches;
+                }
+            }
+        }
+        return new Rectangle(minCol, minRow, maxCol - minCol + 1, maxRow - minRow + 1);
+    }
+
+    /** Copies the cells of the rectangle (in cells) into a stamp, or null if it lies outside the map. */
+    public static Stamp copyStamp(TileGrid grid, int layer, Rectangle cells) {
+        Rectangle area = cells.intersection(new Rectangle(0, 0, grid.getCols(), grid.getRows()));
+        if (area.isEmpty()) return null;
+
+        int[] row = new int[grid.getCols()];
+        int[] ids = new int[area.width * area.height];
+        for (int r = 0; r < area.height; r++) {
+            grid.getRow(layer, area.y + r, row, 0);
+            System.arraycopy(row, area.x, ids, r * area.width, area.width);
+        }
+        return new Stamp(area.height, area.width, ids);
+    }
+
+    /** Paints the non-empty cells of the stamp centered on (row, col). */
+    public static Rectangle stamp(TileGrid grid, EditHistory history, int layer, int row, int col, Stamp stamp) {
+        int top = row - stamp.rows / 2;
+        int left = col - stamp.cols / 2;
+        int firstRow = Math.max(0, top), lastRow = Math.min(grid.getRows(), top + stamp.rows);
+        int firstCol = Math.max(0, left), lastCol = Math.min(grid.getCols(), left + stamp.cols);
+
+        Rectangle dirty = null;
+        for (int r = firstRow; r < lastRow; r++) {
+            for (int c = firstCol; c < lastCol; c++) {
+                int id = stamp.ids[(r - top) * stamp.cols + (c - left)];
+                if (id == TileGrid.EMPTY) continue;
+                int old = grid.get(layer, r, c);
+                if (old == id) continue;
+                grid.set(layer, r, c, id);
+                history.record(layer, r, c, old, id); // drags stamp over the same cells
+                dirty = union(dirty, new Rectangle(c, r, 1, 1));
+            }
+        }
+        return dirty;
+    }
+
+    private static Rectangle union(Rectangle a, Rectangle b) {
+        return a == null ? b : a.union(b);
+    }
+}
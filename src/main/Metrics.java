@@ -0,0 +1,176 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timing and count histograms for the editor's hot paths.
+ * <p>
+ * Recording is off until {@link #setEnabled} turns it on. Call sites time
+ * themselves with
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.PAINT.stop(start);
+ * </pre>
+ * and while disabled start() is a single volatile read returning 0, which
+ * stop() ignores, so the instrumentation costs nothing worth measuring.
+ * Histograms are lock free and may be recorded from any thread.
+ */
+public final class Metrics {
+    private static volatile boolean enabled = Boolean.getBoolean("tilemapeditor.metrics");
+    private static final List<Histogram> all = new ArrayList<>();
+
+    public static final Histogram PAINT = new Histogram("paint", true);
+    public static final Histogram PAINT_CELLS = new Histogram("paint.cellsRendered", false);
+    public static final Histogram PAINT_TILES = new Histogram("paint.tilesDrawn", false);
+    public static final Histogram PLACE_TILE = new Histogram("placeTile", true);
+    public static final Histogram PALETTE_ADD_SHEET = new Histogram("palette.addSheet", true);
+    public static final Histogram PALETTE_LAYOUT = new Histogram("palette.layout", true);
+    public static final Histogram IMPORT_SHEET = new Histogram("import.sheet", true);
+    public static final Histogram SAVE_TEXT = new Histogram("save.text", true);
+    public static final Histogram LOAD_TEXT = new Histogram("load.text", true);
+    public static final Histogram SAVE_TMAP = new Histogram("save.tmap", true);
+    public static final Histogram LOAD_TMAP = new Histogram("load.tmap", true);
+    public static final Histogram EXPORT = new Histogram("export", true);
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** Start time for {@link Histogram#stop}, 0 while disabled. */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public static void resetAll() {
+        for (Histogram h : all) h.reset();
+    }
+
+    /** Writes count, mean, percentiles and max of every histogram that recorded something. */
+    public static void dump(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-24s %10s %12s %12s %12s %12s %12s%n",
+                "# name", "count", "mean", "p50", "p90", "p99", "max"));
+        sb.append("# times in microseconds\n");
+        for (Histogram h : all) {
+            if (h.getCount() == 0) continue;
+            sb.append(String.format("%-24s %10d %12s %12s %12s %12s %12s%n", h.name, h.getCount(),
+                    h.format(h.getMean()), h.format(h.percentile(50)), h.format(h.percentile(90)),
+                    h.format(h.percentile(99)), h.format(h.getMax())));
+        }
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Log-linear histogram of non-negative longs: every power of two range is
+     * split into {@value #SUB_BUCKETS} buckets, so percentiles are accurate to
+     * about 12% over the whole range of a long.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        public final String name;
+        public final boolean nanos; // values are durations in nanoseconds
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name, boolean nanos) {
+            this.name = name;
+            this.nanos = nanos;
+            synchronized (all) {
+                all.add(this);
+            }
+        }
+
+        /** Records the time since start, does nothing if start came from a disabled {@link Metrics#start}. */
+        public void stop(long start) {
+            if (start != 0) record(System.nanoTime() - start);
+        }
+
+        /** Records a value, e.g. a count, if recording is enabled. */
+        public void add(long value) {
+            if (enabled) record(value);
+        }
+
+        private void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(bucketOf(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long m;
+            while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            }
+        }
+
+        // values below SUB_BUCKETS get a bucket each, above that the top SUB_BITS + 1 bits pick it
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        // largest value that lands in bucket
+        private static long bucketLimit(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = bucket / SUB_BUCKETS - 1;
+            long base = (SUB_BUCKETS + (long) (bucket % SUB_BUCKETS)) << shift;
+            return base + (1L << shift) - 1;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : (double) sum.get() / n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /** Upper bound of the bucket holding the p-th percentile, 0 when nothing was recorded. */
+        public long percentile(double p) {
+            long n = count.get();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(n * p / 100));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(bucketLimit(i), max.get());
+            }
+            return max.get();
+        }
+
+        public void reset() {
+            for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        /** A value as microseconds for timings, as is for counts. */
+        public String format(double value) {
+            return nanos ? String.format("%.1f", value / 1000) : String.format("%.0f", value);
+        }
+    }
+}
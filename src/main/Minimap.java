@@ -0,0 +1,177 @@
+package main;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Overview of the whole map with one pixel per cell, colored with the average
+ * color of the tiles stacked in it (see {@link Tile#averageColor}).
+ * <p>
+ * Edits only recompute the pixels of the changed cells. Clicking or dragging
+ * scrolls the editor to that spot, and the editor draws this image instead of
+ * the tiles at zoom levels where a tile is only a few pixels wide.
+ */
+public class Minimap extends JComponent {
+    // longest image side, bigger maps are sampled every 2nd, 4th, ... cell
+    static final int MAX_IMAGE_SIZE = 4096;
+
+    private final MapEditor editor;
+    private final JViewport viewport;
+
+    private BufferedImage image;
+    private int[] pixels;
+    private int cellsPerPixel = 1;
+
+    // where the image was last drawn, for mapping clicks back to cells
+    private int imageX, imageY;
+    private double imageScale = 1;
+
+    public Minimap(MapEditor editor, JViewport viewport) {
+        this.editor = editor;
+        this.viewport = viewport;
+        setPreferredSize(new Dimension(200, 200));
+
+        viewport.addChangeListener(e -> repaint());
+        MouseAdapter navigate = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                scrollTo(e.getPoint());
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                scrollTo(e.getPoint());
+            }
+        };
+        addMouseListener(navigate);
+        addMouseMotionListener(navigate);
+        rebuild();
+    }
+
+    /** Recomputes the whole image, after a resize, load or tile import. */
+    public void rebuild() {
+        int rows = editor.model.getRows();
+        int cols = editor.model.getCols();
+        cellsPerPixel = 1;
+        while (Math.max(rows, cols) > MAX_IMAGE_SIZE * cellsPerPixel) cellsPerPixel *= 2;
+
+        int w = (cols + cellsPerPixel - 1) / cellsPerPixel;
+        int h = (rows + cellsPerPixel - 1) / cellsPerPixel;
+        if (image == null || image.getWidth() != w || image.getHeight() != h) {
+            image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        updatePixels(0, 0, w - 1, h - 1);
+        repaint();
+    }
+
+    /** Updates the pixels of the cells in dirty, null rebuilds the whole image. */
+    public void update(Rectangle dirty) {
+        if (dirty == null) {
+            rebuild();
+            return;
+        }
+        // a pixel shows the cell at its top left corner
+        int x0 = (dirty.x + cellsPerPixel - 1) / cellsPerPixel;
+        int y0 = (dirty.y + cellsPerPixel - 1) / cellsPerPixel;
+        int x1 = Math.min(image.getWidth() - 1, (dirty.x + dirty.width - 1) / cellsPerPixel);
+        int y1 = Math.min(image.getHeight() - 1, (dirty.y + dirty.height - 1) / cellsPerPixel);
+        if (x0 > x1 || y0 > y1) return;
+        updatePixels(x0, y0, x1, y1);
+        repaint();
+    }
+
+    private void updatePixels(int x0, int y0, int x1, int y1) {
+        TileGrid grid = editor.model.getGrid();
+        int layers = grid.getLayerCount();
+        int background = editor.editorPanel != null ? editor.editorPanel.getBackground().getRGB() : 0xffeeeeee;
+        int collision = editor.magenta.getRGB();
+        int kill = editor.red.getRGB();
+        int w = image.getWidth();
+
+        for (int y = y0; y <= y1; y++) {
+            int row = y * cellsPerPixel;
+            for (int x = x0; x <= x1; x++) {
+                int col = x * cellsPerPixel;
+                int color = background;
+                for (int l = 0; l < layers; l++) {
+                    int id = grid.get(l, row, col);
+                    if (id == TileGrid.EMPTY) continue;
+                    if (id == TileGrid.COLLISION) {
+                        color = over(collision, color);
+                    } else if (id == TileGrid.KILL) {
+                        color = over(kill, color);
+                    } else {
+                        Tile tile = editor.tiles.get(id);
+                        if (tile != null) color = over(tile.averageColor, color);
+                    }
+                }
+                pixels[y * w + x] = color;
+            }
+        }
+    }
+
+    // Blends an ARGB color over an opaque one
+    private static int over(int src, int dst) {
+        int a = src >>> 24;
+        if (a == 0xff) return src;
+        if (a == 0) return dst;
+        int r = (((src >> 16) & 0xff) * a + ((dst >> 16) & 0xff) * (255 - a)) / 255;
+        int g = (((src >> 8) & 0xff) * a + ((dst >> 8) & 0xff) * (255 - a)) / 255;
+        int b = ((src & 0xff) * a + (dst & 0xff) * (255 - a)) / 255;
+        return 0xff000000 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Draws the map from the overview image instead of the tiles, for zoom
+     * levels where a tile is only a few pixels wide.
+     */
+    public void paintLevelOfDetail(Graphics2D g2, Rectangle clip, int scaledTileSize) {
+        double scale = (double) scaledTileSize * cellsPerPixel; // editor pixels per image pixel
+        int sx0 = Math.max(0, (int) (clip.x / scale));
+        int sy0 = Math.max(0, (int) (clip.y / scale));
+        int sx1 = Math.min(image.getWidth(), (int) Math.ceil((clip.x + clip.width) / scale));
+        int sy1 = Math.min(image.getHeight(), (int) Math.ceil((clip.y + clip.height) / scale));
+        if (sx0 >= sx1 || sy0 >= sy1) return;
+
+        Graphics2D g = (Graphics2D) g2.create();
+        g.clipRect(0, 0, editor.model.getCols() * scaledTileSize, editor.model.getRows() * scaledTileSize);
+        g.drawImage(image, (int) (sx0 * scale), (int) (sy0 * scale), (int) (sx1 * scale), (int) (sy1 * scale),
+                sx0, sy0, sx1, sy1, null);
+        g.dispose();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (image == null) return;
+        imageScale = Math.min((double) getWidth() / image.getWidth(), (double) getHeight() / image.getHeight());
+        int w = (int) (image.getWidth() * imageScale);
+        int h = (int) (image.getHeight() * imageScale);
+        imageX = (getWidth() - w) / 2;
+        imageY = (getHeight() - h) / 2;
+        g.drawImage(image, imageX, imageY, w, h, null);
+
+        // the part of the map visible in the editor
+        double cellsToMinimap = imageScale / cellsPerPixel / editor.scaledTileSize();
+        Rectangle view = viewport.getViewRect();
+        g.setColor(Color.RED);
+        g.drawRect(imageX + (int) (view.x * cellsToMinimap), imageY + (int) (view.y * cellsToMinimap),
+                (int) (view.width * cellsToMinimap), (int) (view.height * cellsToMinimap));
+    }
+
+    // Centers the editor view on the cell under p
+    private void scrollTo(Point p) {
+        double editorPixels = cellsPerPixel * editor.scaledTileSize() / imageScale;
+        Rectangle view = viewport.getViewRect();
+        Dimension size = viewport.getViewSize();
+        int x = (int) ((p.x - imageX) * editorPixels) - view.width / 2;
+        int y = (int) ((p.y - imageY) * editorPixels) - view.height / 2;
+        x = Math.max(0, Math.min(x, size.width - view.width));
+        y = Math.max(0, Math.min(y, size.height - view.height));
+        viewport.setViewPosition(new Point(x, y));
+    }
+}
@@ -0,0 +1,43 @@
+package main;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Step counter and cancel flag shared between a background task and the
+ * progress dialog polling it. Safe to update from any thread.
+ */
+public class TaskProgress {
+    private final AtomicInteger done = new AtomicInteger();
+    private volatile int total;
+    private volatile boolean canceled;
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void step() {
+        done.incrementAndGet();
+    }
+
+    public int getDone() {
+        return done.get();
+    }
+
+    public void cancel() {
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /** Throws if the task was canceled, call between units of work. */
+    public void checkCanceled() {
+        if (canceled) throw new CancellationException();
+    }
+}
@@ -0,0 +1,190 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads and writes the game's text layer files (map_layer_N.txt, COLLISION.txt):
+ * one map row per line, symbols separated by a single space.
+ * <p>
+ * Symbols are parsed straight from the file bytes into {@link TileGrid} ids and
+ * written back from ids without building a String per cell.
+ */
+public class TextMapFormat {
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** One parsed layer file, its size comes from the file itself. */
+    public static class Layer {
+        public final int rows, cols;
+        public final int[] ids; // row * cols + col
+
+        Layer(int rows, int cols, int[] ids) {
+            this.rows = rows;
+            this.cols = cols;
+            this.ids = ids;
+        }
+    }
+
+    public static Layer read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Parser parser = new Parser(file.getName());
+            byte[] chunk = new byte[BUFFER_SIZE];
+            ByteBuffer buf = ByteBuffer.wrap(chunk);
+            int n;
+            while ((n = channel.read(buf)) >= 0) {
+                parser.feed(chunk, n);
+                buf.clear();
+            }
+            return parser.finish();
+        }
+    }
+
+    /**
+     * Tokenizer fed with raw chunks of the file. A symbol split across two chunks
+     * is carried over in the parser state, so the file never has to be in memory
+     * at once and no String is created for e0/c0/k0/tN symbols.
+     */
+    private static class Parser {
+        final String name;
+        int[] ids = new int[1024];
+        int count = 0;
+        int rows = 0, cols = -1;
+        int rowCells = 0;
+
+        // symbol being read
+        byte[] token = new byte[16];
+        int tokenLength = 0;
+
+        Parser(String name) {
+            this.name = name;
+        }
+
+        void feed(byte[] chunk, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                byte b = chunk[i];
+                if (b == ' ' || b == '\t') {
+                    endSymbol();
+                } else if (b == '\n' || b == '\r') {
+                    endSymbol();
+                    endRow();
+                } else {
+                    if (tokenLength == token.length) token = Arrays.copyOf(token, token.length * 2);
+                    token[tokenLength++] = b;
+                }
+            }
+        }
+
+        Layer finish() throws IOException {
+            endSymbol();
+            endRow(); // last row without a newline
+            if (rows == 0) throw new IOException(name + " is empty");
+            return new Layer(rows, cols, count == ids.length ? ids : Arrays.copyOf(ids, count));
+        }
+
+        private void endSymbol() throws IOException {
+            if (tokenLength == 0) return;
+            int id = parseSymbol(token, tokenLength);
+            if (id == TileGrid.UNKNOWN) {
+                // dropping it would erase the cell on the next save
+                throw new IOException(name + ": unknown symbol \"" + new String(token, 0, tokenLength, StandardCharsets.UTF_8)
+                        + "\" at row " + (rows + 1) + ", column " + (rowCells + 1));
+            }
+            if (count == ids.length) ids = Arrays.copyOf(ids, ids.length * 2);
+            ids[count++] = id;
+            tokenLength = 0;
+            rowCells++;
+        }
+
+        private void endRow() throws IOException {
+            if (rowCells == 0) return; // blank line, trailing newline or the \n of \r\n
+            if (cols < 0) cols = rowCells;
+            else if (rowCells != cols) throw rowWidthError(name, rows, rowCells, cols);
+            rows++;
+            rowCells = 0;
+        }
+    }
+
+    // Same mapping as TileGrid.toId, without creating a String for the common symbols
+    private static int parseSymbol(byte[] token, int length) {
+        byte first = token[0];
+        if (length == 2 && token[1] == '0') {
+            if (first == 'e') return TileGrid.EMPTY;
+            if (first == 'c') return TileGrid.COLLISION;
+            if (first == 'k') return TileGrid.KILL;
+        }
+        if (first == 't' && length > 1 && length <= 10) {
+            long index = 0;
+            for (int i = 1; i < length; i++) {
+                int digit = token[i] - '0';
+                if (digit < 0 || digit > 9) return TileGrid.toId(new String(token, 0, length, StandardCharsets.UTF_8));
+                index = index * 10 + digit;
+            }
+            if (index > Integer.MAX_VALUE - TileGrid.FIRST_TILE) return TileGrid.UNKNOWN;
+            return TileGrid.FIRST_TILE + (int) index;
+        }
+        return TileGrid.toId(new String(token, 0, length, StandardCharsets.UTF_8));
+    }
+
+    private static IOException rowWidthError(String name, int row, int width, int expected) {
+        return new IOException(name + ": row " + (row + 1) + " has " + width + " cells, expected " + expected);
+    }
+
+    /** Writes one layer of the grid through a buffered channel. */
+    public static void write(TileGrid grid, int layer, File file) throws IOException {
+        int rows = grid.getRows();
+        int cols = grid.getCols();
+        int[] ids = new int[cols];
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] out = new byte[BUFFER_SIZE];
+            int n = 0;
+
+            for (int r = 0; r < rows; r++) {
+                grid.getRow(layer, r, ids, 0);
+                for (int c = 0; c < cols; c++) {
+                    if (n > BUFFER_SIZE - 16) {
+                        flush(channel, out, n);
+                        n = 0;
+                    }
+                    if (c > 0) out[n++] = ' ';
+
+                    int id = ids[c];
+                    switch (id) {
+                        case TileGrid.EMPTY: out[n++] = 'e'; out[n++] = '0'; break;
+                        case TileGrid.COLLISION: out[n++] = 'c'; out[n++] = '0'; break;
+                        case TileGrid.KILL: out[n++] = 'k'; out[n++] = '0'; break;
+                        default:
+                            out[n++] = 't';
+                            int index = id - TileGrid.FIRST_TILE;
+                            int digits = 1;
+                            for (int v = index; v >= 10; v /= 10) digits++;
+                            for (int d = n + digits - 1; d >= n; d--) {
+                                out[d] = (byte) ('0' + index % 10);
+                                index /= 10;
+                            }
+                            n += digits;
+                    }
+                }
+                if (n > BUFFER_SIZE - NEWLINE.length) {
+                    flush(channel, out, n);
+                    n = 0;
+                }
+                System.arraycopy(NEWLINE, 0, out, n, NEWLINE.length);
+                n += NEWLINE.length;
+            }
+            flush(channel, out, n);
+        }
+    }
+
+    private static void flush(FileChannel channel, byte[] out, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(out, 0, length);
+        while (buf.hasRemaining()) channel.write(buf);
+    }
+}
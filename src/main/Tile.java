@@ -1,11 +1,167 @@
 package main;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
 
 public class Tile {
+    // how much of the tile is covered, computed once when the tile is created
+    public static final int EMPTY = 0;       // every pixel fully transparent
+    public static final int OPAQUE = 1;      // every pixel fully opaque
+    public static final int TRANSLUCENT = 2; // anything in between
+
     public BufferedImage image;
+    public final int coverage;
+    public final int averageColor; // ARGB, alpha weighted mean of the pixels, for the minimap
+    public final long contentHash; // ContentHash of the pixels, equal tiles have equal hashes
+
+    // the source pixels as imported, image may hold them premultiplied and so lossy;
+    // anything leaving the editor is written from these, image is only for drawing
+    final int[] argb;
+
+    // last scaled variant handed out by scaled(), tiles are only drawn on the EDT
+    private BufferedImage scaledImage;
+    private int scaledSize;
+
+    private static GraphicsConfiguration graphicsConfig;
 
     public Tile(BufferedImage img) {
+        this(img, computeCoverage(img), argbOf(img));
+    }
+
+    private Tile(BufferedImage img, int coverage, int[] argb) {
         this.image = img;
+        this.coverage = coverage;
+        this.argb = argb;
+        this.averageColor = computeAverageColor(argb);
+        this.contentHash = ContentHash.ofPixels(argb, img.getWidth(), img.getHeight());
+    }
+
+    /**
+     * Creates a tile from a copy of img in a screen compatible image, so it
+     * doesn't keep the whole sheet alive the way a getSubimage view does and
+     * Java2D can keep it accelerated.
+     */
+    public static Tile copyOf(BufferedImage img) {
+        int coverage = computeCoverage(img);
+        int transparency = coverage == OPAQUE ? Transparency.OPAQUE : Transparency.TRANSLUCENT;
+        BufferedImage copy = createImage(img.getWidth(), img.getHeight(), transparency);
+
+        Graphics2D g2 = copy.createGraphics();
+        g2.setComposite(AlphaComposite.Src);
+        g2.drawImage(img, 0, 0, null);
+        g2.dispose();
+        return new Tile(copy, coverage, argbOf(img));
+    }
+
+    /** True if both tiles were created from images of the same size with exactly the same pixels. */
+    public boolean samePixels(Tile other) {
+        if (other.contentHash != contentHash) return false;
+        if (other.image.getWidth() != image.getWidth() || other.image.getHeight() != image.getHeight()) return false;
+        return Arrays.equals(argb, other.argb);
+    }
+
+    /** The exact imported pixels in a new non-premultiplied ARGB image, for writing to disk. */
+    public BufferedImage toArgbImage() {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        img.setRGB(0, 0, w, h, argb, 0, w);
+        return img;
+    }
+
+    /**
+     * Returns the tile scaled to size x size pixels with nearest neighbour
+     * sampling. The variant for the current zoom is kept, so painting blits
+     * it 1:1 instead of rescaling the tile on every draw.
+     */
+    public BufferedImage scaled(int size) {
+        if (size == image.getWidth() && size == image.getHeight()) return image;
+        if (scaledImage == null || scaledSize != size) {
+            BufferedImage img = createImage(size, size, coverage == OPAQUE ? Transparency.OPAQUE : Transparency.TRANSLUCENT);
+            Graphics2D g2 = img.createGraphics();
+            g2.setComposite(AlphaComposite.Src);
+            g2.drawImage(image, 0, 0, size, size, null);
+            g2.dispose();
+            scaledImage = img;
+            scaledSize = size;
+        }
+        return scaledImage;
+    }
+
+    /** A screen compatible image, or a premultiplied ARGB image when running headless. */
+    public static BufferedImage createImage(int w, int h, int transparency) {
+        GraphicsConfiguration gc = graphicsConfig();
+        if (gc == null) {
+            return new BufferedImage(w, h, transparency == Transparency.OPAQUE
+                    ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        return gc.createCompatibleImage(w, h, transparency);
+    }
+
+    private static synchronized GraphicsConfiguration graphicsConfig() {
+        if (graphicsConfig == null && !GraphicsEnvironment.isHeadless()) {
+            graphicsConfig = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+        }
+        return graphicsConfig;
+    }
+
+    public boolean isEmpty() {
+        return coverage == EMPTY;
+    }
+
+    public boolean isOpaque() {
+        return coverage == OPAQUE;
+    }
+
+    // Reads the alpha channel in one bulk raster call instead of getRGB per pixel
+    static int computeCoverage(BufferedImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        int[] alpha;
+        int max;
+
+        WritableRaster alphaRaster = img.getAlphaRaster();
+        if (alphaRaster != null) {
+            alpha = alphaRaster.getSamples(0, 0, w, h, 0, (int[]) null);
+            max = (1 << alphaRaster.getSampleModel().getSampleSize(0)) - 1;
+        } else if (!img.getColorModel().hasAlpha()) {
+            return OPAQUE; // no alpha channel, e.g. jpg sheets
+        } else {
+            // indexed images with a transparent palette entry have no separate alpha raster
+            alpha = img.getRGB(0, 0, w, h, null, 0, w);
+            for (int i = 0; i < alpha.length; i++) alpha[i] >>>= 24;
+            max = 0xff;
+        }
+
+        boolean anyVisible = false;
+        boolean allOpaque = true;
+        for (int a : alpha) {
+            if (a != 0) anyVisible = true;
+            if (a != max) allOpaque = false;
+        }
+
+        if (!anyVisible) return EMPTY;
+        return allOpaque ? OPAQUE : TRANSLUCENT;
+    }
+
+    private static int[] argbOf(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    // Colors weighted by alpha, so transparent pixels don't darken the average
+    static int computeAverageColor(int[] argb) {
+        long a = 0, r = 0, g = 0, b = 0;
+        for (int p : argb) {
+            int pa = p >>> 24;
+            a += pa;
+            r += (long) ((p >> 16) & 0xff) * pa;
+            g += (long) ((p >> 8) & 0xff) * pa;
+            b += (long) (p & 0xff) * pa;
+        }
+        if (a == 0) return 0;
+        return (int) (a / argb.length) << 24 | (int) (r / a) << 16 | (int) (g / a) << 8 | (int) (b / a);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,105 @@
+package main;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Packs exported tiles into a few atlas pages instead of one PNG per tile.
+ * <p>
+ * Tiles are laid out left to right, top to bottom on {@value #PAGE_SIZE} pixel
+ * square pages, "atlas_0.png", "atlas_1.png", ..., the last page only as tall
+ * as its used rows. {@value #INDEX} maps every packed tile symbol to its page
+ * and pixel position. Each page is rendered and encoded independently, so the
+ * pages of an export can be written in parallel.
+ */
+public class TileAtlas {
+    public static final String INDEX = "tiles.atlas";
+    static final int PAGE_SIZE = 1024;
+
+    private final Tile[] tiles;
+    private final int[] indexes; // registry index of each packed tile, in packing order
+    private final int cellSize;  // widest or tallest tile, every tile gets a cell this big
+    private final int perRow;
+    private final int perPage;
+
+    /** Lays out tiles[indexes[0]], tiles[indexes[1]], ... in that order. */
+    public TileAtlas(Tile[] tiles, int[] indexes) {
+        this.tiles = tiles;
+        this.indexes = indexes;
+        int size = 1;
+        for (int index : indexes) {
+            size = Math.max(size, Math.max(tiles[index].image.getWidth(), tiles[index].image.getHeight()));
+        }
+        this.cellSize = size;
+        this.perRow = Math.max(1, PAGE_SIZE / size);
+        this.perPage = perRow * perRow;
+    }
+
+    public int getPageCount() {
+        return (indexes.length + perPage - 1) / perPage;
+    }
+
+    public static String pageName(int page) {
+        return "atlas_" + page + ".png";
+    }
+
+    /** Hash of the tiles on a page and their positions, for the export manifest. */
+    public long pageHash(int page) {
+        int from = page * perPage;
+        int to = Math.min(indexes.length, from + perPage);
+        int[] data = new int[(to - from) * 3 + 1];
+        int n = 0;
+        data[n++] = cellSize;
+        for (int i = from; i < to; i++) {
+            long hash = tiles[indexes[i]].contentHash;
+            data[n++] = indexes[i];
+            data[n++] = (int) hash;
+            data[n++] = (int) (hash >>> 32);
+        }
+        return ContentHash.of(data);
+    }
+
+    /** Hash of the index file, it changes whenever a symbol moves. */
+    public long indexHash() {
+        int[] data = new int[indexes.length + 1];
+        data[0] = cellSize;
+        System.arraycopy(indexes, 0, data, 1, indexes.length);
+        return ContentHash.of(data);
+    }
+
+    /** Renders one page and writes it as a PNG. */
+    public void writePage(int page, File file) throws IOException {
+        int from = page * perPage;
+        int to = Math.min(indexes.length, from + perPage);
+        int count = to - from;
+        int width = Math.min(count, perRow) * cellSize;
+        int height = ((count + perRow - 1) / perRow) * cellSize;
+
+        // the imported pixels, the premultiplied drawing copies would lose translucent colors
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int i = from; i < to; i++) {
+            int slot = i - from;
+            Tile tile = tiles[indexes[i]];
+            int w = tile.image.getWidth();
+            img.setRGB((slot % perRow) * cellSize, (slot / perRow) * cellSize, w, tile.image.getHeight(), tile.argb, 0, w);
+        }
+        if (!ImageIO.write(img, "png", file)) throw new IOException("No PNG writer available");
+    }
+
+    /** Writes the "symbol page x y" lines of every packed tile. */
+    public void writeIndex(File file) throws IOException {
+        StringBuilder sb = new StringBuilder(32 + indexes.length * 16);
+        sb.append("# symbol page x y, pages are atlas_<page>.png\n");
+        sb.append("size ").append(cellSize).append('\n');
+        for (int i = 0; i < indexes.length; i++) {
+            int slot = i % perPage;
+            sb.append(TileRegistry.symbolOf(indexes[i])).append(' ').append(i / perPage).append(' ')
+                    .append((slot % perRow) * cellSize).append(' ').append((slot / perRow) * cellSize).append('\n');
+        }
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,293 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * Layered map storage keeping tile ids in fixed-size square chunks.
+ * <p>
+ * A chunk is allocated on the first write of a non-empty id and dropped again
+ * once all of its cells are empty, so memory grows with the painted area and
+ * not with the map bounds. Missing chunks read as {@link #EMPTY}. Bulk access
+ * goes through {@link #getRow} and {@link #setRow}.
+ * <p>
+ * {@link #copy} shares the chunks with the copy and clones a chunk only when
+ * either side writes to it, so taking a snapshot costs one reference per chunk.
+ * Neither side ever writes into a shared chunk, which makes a copy safe to read
+ * on another thread while the original keeps being edited.
+ * <p>
+ * Symbols are interned to ids once when a map is loaded and turned back into
+ * symbols only when it is written: the specials "e0", "c0" and "k0" use the
+ * reserved ids below and tile "tN" uses {@code FIRST_TILE + N}.
+ */
+public class TileGrid {
+    public static final int EMPTY = 0;     // "e0"
+    public static final int COLLISION = 1; // "c0"
+    public static final int KILL = 2;      // "k0"
+    public static final int FIRST_TILE = 3;
+    public static final int UNKNOWN = -1;  // toId of a symbol that isn't one of the above, never stored
+
+    public static final int CHUNK_SHIFT = 6;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // chunk width and height in cells
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int layerCount;
+    private int rows, cols;
+    private int chunkRows, chunkCols;
+
+    // [layer][chunkRow * chunkCols + chunkCol], null while the chunk is all EMPTY
+    private int[][][] chunks;
+    // non-empty cells per chunk, the chunk is released when this drops to 0
+    private int[][] filled;
+    // chunks also referenced by a copy, cloned before the next write
+    private boolean[][] shared;
+
+    public TileGrid(int layerCount, int rows, int cols) {
+        this.layerCount = layerCount;
+        this.rows = rows;
+        this.cols = cols;
+        this.chunkRows = chunkCount(rows);
+        this.chunkCols = chunkCount(cols);
+        this.chunks = new int[layerCount][chunkRows * chunkCols][];
+        this.filled = new int[layerCount][chunkRows * chunkCols];
+        this.shared = new boolean[layerCount][chunkRows * chunkCols];
+    }
+
+    public int getLayerCount() {
+        return layerCount;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int get(int layer, int row, int col) {
+        int[] chunk = chunks[layer][(row >> CHUNK_SHIFT) * chunkCols + (col >> CHUNK_SHIFT)];
+        return chunk == null ? EMPTY : chunk[(row & CHUNK_MASK) << CHUNK_SHIFT | (col & CHUNK_MASK)];
+    }
+
+    public void set(int layer, int row, int col, int id) {
+        int index = (row >> CHUNK_SHIFT) * chunkCols + (col >> CHUNK_SHIFT);
+        int[] chunk = writable(layer, index);
+        if (chunk == null) {
+            if (id == EMPTY) return;
+            chunk = allocate(layer, index);
+        }
+
+        int cell = (row & CHUNK_MASK) << CHUNK_SHIFT | (col & CHUNK_MASK);
+        int old = chunk[cell];
+        chunk[cell] = id;
+        if (old == EMPTY && id != EMPTY) {
+            filled[layer][index]++;
+        } else if (old != EMPTY && id == EMPTY && --filled[layer][index] == 0) {
+            chunks[layer][index] = null;
+        }
+    }
+
+    /** Copies one map row of a layer into dst starting at dstPos. */
+    public void getRow(int layer, int row, int[] dst, int dstPos) {
+        int base = (row >> CHUNK_SHIFT) * chunkCols;
+        int offset = (row & CHUNK_MASK) << CHUNK_SHIFT;
+        for (int cc = 0; cc < chunkCols; cc++) {
+            int col = cc << CHUNK_SHIFT;
+            int length = Math.min(CHUNK_SIZE, cols - col);
+            int[] chunk = chunks[layer][base + cc];
+            if (chunk == null) {
+                Arrays.fill(dst, dstPos + col, dstPos + col + length, EMPTY);
+            } else {
+                System.arraycopy(chunk, offset, dst, dstPos + col, length);
+            }
+        }
+    }
+
+    /** Overwrites one map row of a layer with cols ids from src starting at srcPos. */
+    public void setRow(int layer, int row, int[] src, int srcPos) {
+        int base = (row >> CHUNK_SHIFT) * chunkCols;
+        int offset = (row & CHUNK_MASK) << CHUNK_SHIFT;
+        for (int cc = 0; cc < chunkCols; cc++) {
+            int col = cc << CHUNK_SHIFT;
+            int length = Math.min(CHUNK_SIZE, cols - col);
+            int[] chunk = writable(layer, base + cc);
+
+            int added = 0;
+            for (int i = 0; i < length; i++) {
+                if (src[srcPos + col + i] != EMPTY) added++;
+            }
+            if (chunk == null) {
+                if (added == 0) continue;
+                chunk = allocate(layer, base + cc);
+            }
+
+            int removed = 0;
+            for (int i = 0; i < length; i++) {
+                if (chunk[offset + i] != EMPTY) removed++;
+            }
+            System.arraycopy(src, srcPos + col, chunk, offset, length);
+            filled[layer][base + cc] += added - removed;
+            if (filled[layer][base + cc] == 0) chunks[layer][base + cc] = null;
+        }
+    }
+
+    public void fill(int layer, int id) {
+        int[][] layerChunks = chunks[layer];
+        if (id == EMPTY) {
+            Arrays.fill(layerChunks, null);
+            Arrays.fill(filled[layer], 0);
+            Arrays.fill(shared[layer], false);
+            return;
+        }
+        for (int i = 0; i < layerChunks.length; i++) {
+            if (layerChunks[i] == null || shared[layer][i]) allocate(layer, i);
+            Arrays.fill(layerChunks[i], id);
+            filled[layer][i] = CHUNK_SIZE * CHUNK_SIZE;
+        }
+        clearOutside(layer);
+    }
+
+    /**
+     * Independent copy, e.g. for saving on a worker thread while editing continues.
+     * Chunks are shared copy-on-write, see the class comment.
+     */
+    public TileGrid copy() {
+        TileGrid copy = new TileGrid(layerCount, rows, cols);
+        for (int l = 0; l < layerCount; l++) {
+            for (int i = 0; i < chunks[l].length; i++) {
+                if (chunks[l][i] == null) continue;
+                copy.chunks[l][i] = chunks[l][i];
+                shared[l][i] = true;
+                copy.shared[l][i] = true;
+            }
+            System.arraycopy(filled[l], 0, copy.filled[l], 0, filled[l].length);
+        }
+        return copy;
+    }
+
+    // Chunk to write into, cloned first while a copy still references it
+    private int[] writable(int layer, int index) {
+        int[] chunk = chunks[layer][index];
+        if (chunk != null && shared[layer][index]) {
+            chunk = chunks[layer][index] = chunk.clone();
+            shared[layer][index] = false;
+        }
+        return chunk;
+    }
+
+    private int[] allocate(int layer, int index) {
+        shared[layer][index] = false;
+        return chunks[layer][index] = new int[CHUNK_SIZE * CHUNK_SIZE];
+    }
+
+    /**
+     * Changes the map size, keeping the overlapping area. Chunks inside the new
+     * bounds are kept as they are, chunks outside are dropped and cells of the
+     * kept edge chunks past the new bounds are cleared, so growing the map again
+     * shows EMPTY there.
+     */
+    public void resize(int newRows, int newCols) {
+        int newChunkRows = chunkCount(newRows);
+        int newChunkCols = chunkCount(newCols);
+        int keepChunkRows = Math.min(chunkRows, newChunkRows);
+        int keepChunkCols = Math.min(chunkCols, newChunkCols);
+
+        int[][][] newChunks = new int[layerCount][newChunkRows * newChunkCols][];
+        int[][] newFilled = new int[layerCount][newChunkRows * newChunkCols];
+        boolean[][] newShared = new boolean[layerCount][newChunkRows * newChunkCols];
+        for (int l = 0; l < layerCount; l++) {
+            for (int cr = 0; cr < keepChunkRows; cr++) {
+                System.arraycopy(chunks[l], cr * chunkCols, newChunks[l], cr * newChunkCols, keepChunkCols);
+                System.arraycopy(filled[l], cr * chunkCols, newFilled[l], cr * newChunkCols, keepChunkCols);
+                System.arraycopy(shared[l], cr * chunkCols, newShared[l], cr * newChunkCols, keepChunkCols);
+            }
+        }
+
+        chunks = newChunks;
+        filled = newFilled;
+        shared = newShared;
+        rows = newRows;
+        cols = newCols;
+        chunkRows = newChunkRows;
+        chunkCols = newChunkCols;
+        for (int l = 0; l < layerCount; l++) {
+            clearOutside(l);
+        }
+    }
+
+    // Empties the cells of the last chunk row and column that lie past rows/cols
+    private void clearOutside(int layer) {
+        int edgeRows = rows & CHUNK_MASK;
+        int edgeCols = cols & CHUNK_MASK;
+        for (int cr = 0; cr < chunkRows; cr++) {
+            for (int cc = 0; cc < chunkCols; cc++) {
+                boolean lastRow = cr == chunkRows - 1 && edgeRows != 0;
+                boolean lastCol = cc == chunkCols - 1 && edgeCols != 0;
+                if (!lastRow && !lastCol) continue;
+
+                int index = cr * chunkCols + cc;
+                int[] chunk = writable(layer, index);
+                if (chunk == null) continue;
+                for (int r = 0; r < CHUNK_SIZE; r++) {
+                    for (int c = 0; c < CHUNK_SIZE; c++) {
+                        boolean outside = (lastRow && r >= edgeRows) || (lastCol && c >= edgeCols);
+                        int cell = r << CHUNK_SHIFT | c;
+                        if (outside && chunk[cell] != EMPTY) {
+                            chunk[cell] = EMPTY;
+                            filled[layer][index]--;
+                        }
+                    }
+                }
+                if (filled[layer][index] == 0) chunks[layer][index] = null;
+            }
+        }
+    }
+
+    /** Number of chunks currently holding data, across all layers. */
+    public int getAllocatedChunkCount() {
+        int count = 0;
+        for (int[][] layerChunks : chunks) {
+            for (int[] chunk : layerChunks) {
+                if (chunk != null) count++;
+            }
+        }
+        return count;
+    }
+
+    /** Approximate heap used by the cell data. */
+    public long getMemoryBytes() {
+        return (long) getAllocatedChunkCount() * CHUNK_SIZE * CHUNK_SIZE * 4
+                + (long) layerCount * chunkRows * chunkCols * 12;
+    }
+
+    private static int chunkCount(int cells) {
+        return (cells + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+    }
+
+    /** Interns a map symbol, {@link #UNKNOWN} for anything that isn't e0, c0, k0 or tN. */
+    public static int toId(String symbol) {
+        switch (symbol) {
+            case "e0": return EMPTY;
+            case "c0": return COLLISION;
+            case "k0": return KILL;
+        }
+        if (symbol.length() > 1 && symbol.charAt(0) == 't' && symbol.charAt(1) != '+' && symbol.charAt(1) != '-') {
+            try {
+                int index = Integer.parseInt(symbol, 1, symbol.length(), 10);
+                return index <= Integer.MAX_VALUE - FIRST_TILE ? FIRST_TILE + index : UNKNOWN;
+            } catch (NumberFormatException e) {
+                return UNKNOWN;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    public static String toSymbol(int id) {
+        switch (id) {
+            case EMPTY: return "e0";
+            case COLLISION: return "c0";
+            case KILL: return "k0";
+            default: return "t" + (id - FIRST_TILE);
+        }
+    }
+}
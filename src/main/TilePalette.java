@@ -0,0 +1,254 @@
+package main;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.function.IntConsumer;
+
+/**
+ * Tile picker that paints only the thumbnails inside the visible rect instead
+ * of holding one button per tile.
+ * <p>
+ * Thumbnails are rendered once into shared atlas images when a sheet is added.
+ * Each sheet is laid out as a header line followed by a wrapping grid of its
+ * non-empty tiles; clicks are hit-tested against that layout.
+ */
+public class TilePalette extends JComponent implements Scrollable {
+    private static final int GAP = 5;
+    private static final int HEADER_HEIGHT = 26;
+    private static final int ATLAS_SIZE = 1024;
+
+    private final TileRegistry tiles;
+    private final int thumbSize;  // thumbnail edge in pixels
+    private final int cellSize;   // thumbnail plus border
+    private final IntConsumer onSelect;
+
+    // thumbnail atlases, thumbnail i lives in atlas i / perAtlas at slot i % perAtlas
+    private final ArrayList<BufferedImage> atlases = new ArrayList<>();
+    private final int perRow;
+    private final int perAtlas;
+    private int thumbCount = 0;
+
+    private final ArrayList<Section> sections = new ArrayList<>();
+    private int layoutWidth = -1;
+    private int columns = 1;
+    private int totalHeight = 0;
+
+    private int selectedIndex = -1; // registry index of the selected tile
+
+    // one spritesheet: its visible tile indexes and their thumbnail slots
+    private static class Section {
+        String name;
+        int[] tileIndexes;
+        int[] thumbs;
+        int y; // top of the header, set by layoutSections()
+    }
+
+    public TilePalette(TileRegistry tiles, int tileSize, IntConsumer onSelect) {
+        this.tiles = tiles;
+        this.thumbSize = tileSize * 2;
+        this.cellSize = thumbSize + 4;
+        this.onSelect = onSelect;
+        this.perRow = ATLAS_SIZE / thumbSize;
+        this.perAtlas = perRow * perRow;
+
+        setOpaque(true);
+        setBackground(UIManager.getColor("Panel.background"));
+        setForeground(UIManager.getColor("Label.foreground"));
+        setFont(UIManager.getFont("Label.font"));
+
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                int index = tileAt(e.getX(), e.getY());
+                if (index < 0) return;
+                selectedIndex = index;
+                onSelect.accept(TileRegistry.idOf(index));
+                repaint();
+            }
+        });
+
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                int oldHeight = totalHeight;
+                layoutSections(getWidth());
+                if (totalHeight != oldHeight) revalidate();
+                repaint();
+            }
+        });
+    }
+
+    /** Appends the registry's sheet to the palette, rendering only its thumbnails. */
+    public void addSheet(int sheetIdx) {
+        long startTime = Metrics.start();
+        int start = tiles.getSheetStart(sheetIdx);
+        int end = tiles.getSheetEnd(sheetIdx);
+
+        // skip fully transparent tiles and copies of tiles shown already
+        int visible = 0;
+        for (int i = start; i < end; i++) {
+            if (!tiles.getTile(i).isEmpty() && tiles.isCanonical(i)) visible++;
+        }
+
+        Section section = new Section();
+        section.name = tiles.getSheetName(sheetIdx);
+        section.tileIndexes = new int[visible];
+        section.thumbs = new int[visible];
+
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            Tile tile = tiles.getTile(i);
+            if (tile.isEmpty() || !tiles.isCanonical(i)) continue;
+            section.tileIndexes[n] = i;
+            section.thumbs[n] = addThumbnail(tile.image);
+            n++;
+        }
+        sections.add(section);
+
+        layoutWidth = -1;
+        revalidate();
+        repaint();
+        Metrics.PALETTE_ADD_SHEET.stop(startTime);
+    }
+
+    private int addThumbnail(BufferedImage img) {
+        int slot = thumbCount % perAtlas;
+        if (slot == 0) {
+            atlases.add(Tile.createImage(ATLAS_SIZE, ATLAS_SIZE, Transparency.TRANSLUCENT));
+        }
+        BufferedImage atlas = atlases.get(atlases.size() - 1);
+        Graphics2D g2 = atlas.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(img, (slot % perRow) * thumbSize, (slot / perRow) * thumbSize, thumbSize, thumbSize, null);
+        g2.dispose();
+        return thumbCount++;
+    }
+
+    // Positions every section for the given width, only section offsets are stored
+    private void layoutSections(int width) {
+        if (width == layoutWidth) return;
+        long start = Metrics.start();
+        layoutWidth = width;
+        columns = Math.max(1, (width - GAP) / (cellSize + GAP));
+
+        int y = 0;
+        for (Section section : sections) {
+            section.y = y;
+            y += HEADER_HEIGHT + rowCount(section) * (cellSize + GAP);
+        }
+        totalHeight = y + GAP;
+        Metrics.PALETTE_LAYOUT.stop(start);
+    }
+
+    private int rowCount(Section section) {
+        return (section.tileIndexes.length + columns - 1) / columns;
+    }
+
+    /** Registry index of the tile under the point, or -1. */
+    private int tileAt(int x, int y) {
+        layoutSections(getWidth());
+        for (Section section : sections) {
+            int gridTop = section.y + HEADER_HEIGHT;
+            int gridBottom = gridTop + rowCount(section) * (cellSize + GAP);
+            if (y < gridTop || y >= gridBottom) continue;
+
+            int col = (x - GAP) / (cellSize + GAP);
+            int row = (y - gridTop) / (cellSize + GAP);
+            if (x < GAP || col >= columns) return -1;
+            if ((x - GAP) % (cellSize + GAP) >= cellSize || (y - gridTop) % (cellSize + GAP) >= cellSize) return -1;
+
+            int n = row * columns + col;
+            return n < section.tileIndexes.length ? section.tileIndexes[n] : -1;
+        }
+        return -1;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        layoutSections(getWidth());
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        Font headerFont = getFont().deriveFont(Font.BOLD, 14f);
+        for (Section section : sections) {
+            int gridTop = section.y + HEADER_HEIGHT;
+            int bottom = gridTop + rowCount(section) * (cellSize + GAP);
+            if (bottom <= clip.y || section.y >= clip.y + clip.height) continue;
+
+            g.setColor(getForeground());
+            g.setFont(headerFont);
+            g.drawString(section.name, GAP, section.y + HEADER_HEIGHT - 8);
+
+            int firstRow = Math.max(0, (clip.y - gridTop) / (cellSize + GAP));
+            int lastRow = Math.min(rowCount(section) - 1, (clip.y + clip.height - gridTop) / (cellSize + GAP));
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int col = 0; col < columns; col++) {
+                    int n = row * columns + col;
+                    if (n >= section.tileIndexes.length) break;
+                    int x = GAP + col * (cellSize + GAP);
+                    int y = gridTop + row * (cellSize + GAP);
+                    paintThumbnail(g, section.thumbs[n], x, y, section.tileIndexes[n] == selectedIndex);
+                }
+            }
+        }
+    }
+
+    private void paintThumbnail(Graphics g, int thumb, int x, int y, boolean selected) {
+        BufferedImage atlas = atlases.get(thumb / perAtlas);
+        int slot = thumb % perAtlas;
+        int sx = (slot % perRow) * thumbSize;
+        int sy = (slot / perRow) * thumbSize;
+
+        g.setColor(selected ? UIManager.getColor("List.selectionBackground") : Color.GRAY);
+        g.drawRect(x, y, cellSize - 1, cellSize - 1);
+        if (selected) g.drawRect(x + 1, y + 1, cellSize - 3, cellSize - 3);
+        g.drawImage(atlas, x + 2, y + 2, x + 2 + thumbSize, y + 2 + thumbSize,
+                sx, sy, sx + thumbSize, sy + thumbSize, null);
+    }
+
+    /** Clears the highlight, e.g. when the eraser or a marker is picked instead. */
+    public void clearSelection() {
+        selectedIndex = -1;
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        layoutSections(getWidth() > 0 ? getWidth() : 600);
+        return new Dimension(layoutWidth, totalHeight);
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(600, 180);
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return cellSize + GAP;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+}
@@ -0,0 +1,134 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * All imported tiles in import order, grouped by the spritesheet they came from.
+ * <p>
+ * Tile "tN" is the N-th imported tile, so lookups by id or symbol are a
+ * direct index into the tile list.
+ * <p>
+ * Tiles with exactly the same pixels, within a sheet or across sheets, are
+ * imported once: the first one is the canonical tile and later copies become
+ * aliases of it. An alias keeps its symbol, so maps that use it still resolve,
+ * but it shares the canonical Tile and isn't offered in the palette or
+ * exported on its own.
+ */
+public class TileRegistry {
+    private final ArrayList<Tile> tiles = new ArrayList<>();
+    private final ArrayList<String> sheetNames = new ArrayList<>();
+    private final ArrayList<Integer> sheetStartIndexes = new ArrayList<>();
+
+    // canonical[i] is the index of the tile that i is a copy of, i itself for canonical tiles
+    private int[] canonical = new int[256];
+    private int uniqueCount = 0;
+
+    // first canonical tile per content hash, nextWithHash chains the rare
+    // canonical tiles whose different pixels happen to hash the same
+    private final HashMap<Long, Integer> firstWithHash = new HashMap<>();
+    private int[] nextWithHash = new int[256];
+
+    /** Appends the tiles of one spritesheet, they get the next free symbols. */
+    public void addSheet(String name, List<Tile> sheetTiles) {
+        sheetNames.add(name);
+        sheetStartIndexes.add(tiles.size());
+        int needed = tiles.size() + sheetTiles.size();
+        if (needed > canonical.length) {
+            canonical = Arrays.copyOf(canonical, Math.max(needed, canonical.length * 2));
+            nextWithHash = Arrays.copyOf(nextWithHash, canonical.length);
+        }
+        for (Tile tile : sheetTiles) {
+            add(tile);
+        }
+    }
+
+    private void add(Tile tile) {
+        int index = tiles.size();
+        Integer first = firstWithHash.putIfAbsent(tile.contentHash, index);
+        if (first != null) {
+            // same hash, compare the pixels to tell a copy from a collision
+            int last = first;
+            for (int i = first; i >= 0; i = nextWithHash[i]) {
+                Tile existing = tiles.get(i);
+                if (existing.samePixels(tile)) {
+                    canonical[index] = i;
+                    tiles.add(existing);
+                    return;
+                }
+                last = i;
+            }
+            nextWithHash[last] = index;
+        }
+        canonical[index] = index;
+        nextWithHash[index] = -1;
+        uniqueCount++;
+        tiles.add(tile);
+    }
+
+    public int size() {
+        return tiles.size();
+    }
+
+    /** Number of distinct tiles, i.e. size() without the aliases. */
+    public int getUniqueCount() {
+        return uniqueCount;
+    }
+
+    /** Index of the tile with the same pixels that was imported first, index itself if it is that tile. */
+    public int canonicalIndex(int index) {
+        return canonical[index];
+    }
+
+    public boolean isCanonical(int index) {
+        return canonical[index] == index;
+    }
+
+    /** Copy of the alias table, entry i being canonicalIndex(i), for exporting off the EDT. */
+    public int[] canonicalIndexes() {
+        return Arrays.copyOf(canonical, tiles.size());
+    }
+
+    /** Tile at an import index, i.e. the N of "tN". */
+    public Tile getTile(int index) {
+        return tiles.get(index);
+    }
+
+    /** Tile for a TileGrid id, or null for the special ids and tiles not imported yet. */
+    public Tile get(int id) {
+        int index = id - TileGrid.FIRST_TILE;
+        if (index < 0 || index >= tiles.size()) return null;
+        return tiles.get(index);
+    }
+
+    public static String symbolOf(int index) {
+        return "t" + index;
+    }
+
+    public static int idOf(int index) {
+        return TileGrid.FIRST_TILE + index;
+    }
+
+    /** All tiles in import order, index N being "tN". Aliases hold their canonical tile. */
+    public Tile[] toArray() {
+        return tiles.toArray(new Tile[0]);
+    }
+
+    public int getSheetCount() {
+        return sheetNames.size();
+    }
+
+    public String getSheetName(int sheet) {
+        return sheetNames.get(sheet);
+    }
+
+    public int getSheetStart(int sheet) {
+        return sheetStartIndexes.get(sheet);
+    }
+
+    public int getSheetEnd(int sheet) {
+        return (sheet + 1 < sheetStartIndexes.size()) ? sheetStartIndexes.get(sheet + 1) : tiles.size();
+    }
+}
@@ -0,0 +1,66 @@
+package main;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes and slices tilesheets on a worker pool.
+ * <p>
+ * Each sheet is decoded, cut into tiles and classified (see {@link Tile#coverage})
+ * by its own task. The futures come back in file order so the caller can add the
+ * sheets to the {@link TileRegistry} in that order and tile symbols stay the same
+ * no matter which sheet finishes first.
+ */
+public class TilesheetImporter {
+
+    public static class Sheet {
+        public final String name;
+        public final List<Tile> tiles;
+
+        Sheet(String name, List<Tile> tiles) {
+            this.name = name;
+            this.tiles = tiles;
+        }
+    }
+
+    /** Starts one task per file, the returned futures are in the same order as the files. */
+    public static List<Future<Sheet>> submit(File[] files, int tileSize, ExecutorService pool, Runnable onSheetDone) {
+        List<Future<Sheet>> futures = new ArrayList<>(files.length);
+        for (File file : files) {
+            futures.add(pool.submit(() -> {
+                try {
+                    return load(file, tileSize);
+                } finally {
+                    if (onSheetDone != null) onSheetDone.run();
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /** Decodes one sheet and slices it into tiles, row by row. The sheet itself isn't kept. */
+    public static Sheet load(File file, int tileSize) throws IOException {
+        long start = Metrics.start();
+        BufferedImage sheet = ImageIO.read(file);
+        if (sheet == null) throw new IOException("Unsupported image format");
+
+        int sheetCols = sheet.getWidth() / tileSize;
+        int sheetRows = sheet.getHeight() / tileSize;
+
+        ArrayList<Tile> tiles = new ArrayList<>(sheetCols * sheetRows);
+        for (int y = 0; y < sheetRows; y++) {
+            for (int x = 0; x < sheetCols; x++) {
+                BufferedImage sub = sheet.getSubimage(x * tileSize, y * tileSize, tileSize, tileSize);
+                tiles.add(Tile.copyOf(sub));
+            }
+        }
+        Metrics.IMPORT_SHEET.stop(start);
+        return new Sheet(file.getName(), tiles);
+    }
+}
@@ -0,0 +1,24 @@
+package main;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared worker pool for background decoding, slicing and file I/O.
+ * Threads are daemons so a running task never keeps the editor from exiting.
+ */
+public final class Workers {
+    public static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    public static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread t = new Thread(r, "editor-worker-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Workers() {
+    }
+}
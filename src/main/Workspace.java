@@ -0,0 +1,283 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * A folder of maps, every .tmap file in it, edited one at a time with the
+ * editor's shared {@link TileRegistry}.
+ * <p>
+ * Recently used maps stay resident as {@link MapModel}s, undo history
+ * included, so switching back to them is instant. Resident maps are kept in
+ * least recently used order within a memory budget; past it the coldest maps
+ * are written back to their file if changed and dropped. Opening a map that
+ * isn't resident reads it on the worker pool.
+ * <p>
+ * Changed maps are also written back, compressed, when the editor switches
+ * away from them and on {@link #close}. Call everything on the writer thread
+ * of the maps, callbacks arrive there too.
+ */
+public class Workspace {
+
+    public interface Listener {
+        /** The list of maps or their resident / modified state changed. */
+        void workspaceChanged(Workspace workspace);
+
+        /** Writing a map back failed, it stays resident and modified. */
+        void writeFailed(Entry entry, Exception e);
+    }
+
+    public static class Entry {
+        public final String name;
+        public final File file;
+        MapModel model;         // null while not resident
+        boolean modified;       // changed since it was read or last written
+        Future<?> pendingWrite; // last write back, a reload waits for it
+        MapModel.Listener changeListener;
+
+        Entry(String name, File file) {
+            this.name = name;
+            this.file = file;
+        }
+
+        public boolean isResident() {
+            return model != null;
+        }
+
+        public boolean isModified() {
+            return modified;
+        }
+
+        /** The last write back of this map, null if there was none. */
+        public Future<?> getPendingWrite() {
+            return pendingWrite;
+        }
+    }
+
+    private final File dir;
+    private final int layerCount;
+    private final long historyBytes;
+    private final long maxResidentBytes;
+    private final Executor writerThread;
+    private final Listener listener;
+
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    private final LinkedHashMap<String, Entry> resident = new LinkedHashMap<>(16, 0.75f, true); // eldest first
+    private Entry active;
+    private int openRequest; // only the latest open() activates its map
+
+    /** Lists the maps in dir. Resident maps beyond maxResidentBytes are written back and dropped. */
+    public Workspace(File dir, int layerCount, long historyBytes, long maxResidentBytes,
+                     Executor writerThread, Listener listener) {
+        this.dir = dir;
+        this.layerCount = layerCount;
+        this.historyBytes = historyBytes;
+        this.maxResidentBytes = maxResidentBytes;
+        this.writerThread = writerThread;
+        this.listener = listener;
+
+        String suffix = "." + BinaryMapFormat.EXTENSION;
+        File[] files = dir.listFiles((d, name) -> name.endsWith(suffix));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName().substring(0, file.getName().length() - suffix.length());
+                entries.put(name, newEntry(name, file));
+            }
+        }
+    }
+
+    private Entry newEntry(String name, File file) {
+        Entry entry = new Entry(name, file);
+        entry.changeListener = (model, dirty) -> {
+            if (entry.modified) return;
+            entry.modified = true;
+            listener.workspaceChanged(this);
+        };
+        return entry;
+    }
+
+    /** All maps by name. */
+    public List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /** The map being edited, or null before the first open or add. */
+    public Entry getActive() {
+        return active;
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Adds model as a new map, saved as name.tmap when switching away, and
+     * makes it the active map.
+     */
+    public Entry add(String name, MapModel model) {
+        if (entries.containsKey(name)) throw new IllegalArgumentException(name + " is already in the workspace");
+        Entry entry = newEntry(name, new File(dir, name + "." + BinaryMapFormat.EXTENSION));
+        entry.modified = true;
+        entries.put(name, entry);
+        makeResident(entry, model);
+        activate(entry);
+        return entry;
+    }
+
+    /**
+     * Makes a map the active one. A resident map is handed to onOpened right
+     * away, others are read in the background first; a later open() wins
+     * over one still loading.
+     */
+    public void open(String name, Consumer<MapModel> onOpened, Consumer<Exception> onError) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            onError.accept(new IOException("No map named " + name));
+            return;
+        }
+        int request = ++openRequest;
+        if (entry.model != null) {
+            activate(entry);
+            onOpened.accept(entry.model);
+            return;
+        }
+
+        Future<?> pending = entry.pendingWrite;
+        Workers.POOL.execute(() -> {
+            try {
+                if (pending != null && !awaitWrite(pending)) {
+                    // the file is stale, writeFailed has already queued bringing back the unsaved map
+                    writerThread.execute(() -> loaded(entry, null, request, onOpened, onError));
+                    return;
+                }
+                TileGrid grid = BinaryMapFormat.read(entry.file);
+                writerThread.execute(() -> loaded(entry, grid, request, onOpened, onError));
+            } catch (IOException | RuntimeException e) {
+                writerThread.execute(() -> {
+                    if (request == openRequest) onError.accept(e);
+                });
+            }
+        });
+    }
+
+    // Writer thread: a map was read for open(), grid is null if its write back failed instead
+    private void loaded(Entry entry, TileGrid grid, int request, Consumer<MapModel> onOpened, Consumer<Exception> onError) {
+        if (entry.model == null) {
+            // a failed write back may have brought it back already, that copy is newer
+            if (grid == null) {
+                if (request == openRequest) onError.accept(new IOException(entry.name + " could not be written back"));
+                return;
+            }
+            if (grid.getLayerCount() != layerCount) {
+                if (request == openRequest) {
+                    onError.accept(new IOException(entry.name + " has " + grid.getLayerCount()
+                            + " layers, expected " + layerCount));
+                }
+                return;
+            }
+            makeResident(entry, new MapModel(grid, historyBytes));
+        }
+        if (request != openRequest) {
+            // another map was picked meanwhile, keep this one for later
+            trim();
+            listener.workspaceChanged(this);
+            return;
+        }
+        activate(entry);
+        onOpened.accept(entry.model);
+    }
+
+    private void makeResident(Entry entry, MapModel model) {
+        entry.model = model;
+        model.addListener(entry.changeListener);
+        resident.put(entry.name, entry);
+    }
+
+    private void activate(Entry entry) {
+        if (active != null && active != entry) writeBack(active);
+        active = entry;
+        resident.get(entry.name); // most recently used now
+        trim();
+        listener.workspaceChanged(this);
+    }
+
+    // Drops the least recently used maps until the resident ones fit the budget
+    private void trim() {
+        long total = 0;
+        for (Entry entry : resident.values()) total += entry.model.getMemoryBytes();
+
+        Iterator<Entry> it = resident.values().iterator();
+        while (total > maxResidentBytes && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry == active) continue;
+            total -= entry.model.getMemoryBytes();
+            writeBack(entry);
+            entry.model.removeListener(entry.changeListener);
+            entry.model = null;
+            it.remove();
+        }
+    }
+
+    // Writes a changed map to its file on the worker pool, from a snapshot
+    private void writeBack(Entry entry) {
+        if (!entry.modified || entry.model == null) return;
+        TileGrid snapshot = entry.model.snapshot();
+        entry.modified = false;
+
+        // writes of one file go through the same temp file, so one at a time
+        Future<?> previous = entry.pendingWrite;
+        entry.pendingWrite = Workers.POOL.submit(() -> {
+            if (previous != null) awaitWrite(previous);
+            try {
+                BinaryMapFormat.write(snapshot, entry.file, true);
+            } catch (IOException e) {
+                writerThread.execute(() -> writeFailed(entry, snapshot, e));
+                throw e;
+            }
+            return null;
+        });
+    }
+
+    // Writer thread: keeps the unsaved map around, as it was written if it was dropped meanwhile
+    private void writeFailed(Entry entry, TileGrid snapshot, IOException e) {
+        if (entry.model == null) makeResident(entry, new MapModel(snapshot, historyBytes));
+        entry.modified = true;
+        listener.writeFailed(entry, e);
+        listener.workspaceChanged(this);
+    }
+
+    // True if the write succeeded
+    private static boolean awaitWrite(Future<?> write) {
+        try {
+            write.get();
+            return true;
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Writes back every changed map and waits for all writes, for closing the
+     * editor. Returns the names of the maps that could not be written.
+     */
+    public List<String> close() {
+        for (Entry entry : resident.values()) writeBack(entry);
+        List<String> failed = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.pendingWrite != null && !awaitWrite(entry.pendingWrite)) failed.add(entry.name);
+        }
+        return failed;
+    }
+}